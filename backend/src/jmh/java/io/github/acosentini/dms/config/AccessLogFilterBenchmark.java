@@ -0,0 +1,148 @@
+package io.github.acosentini.dms.config;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.OutputStreamAppender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request cost of access logging on the request thread. {@link #noLogging()} runs the
+ * mock exchange alone; {@link #accessLogFilter()} adds the sampled {@link AccessLogFilter}
+ * writing through an asynchronous appender, and {@link #perRequestLogging()} the two
+ * synchronous INFO lines per request that the authentication filter used to write.
+ * Log output is formatted as in logback-spring.xml and discarded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+public class AccessLogFilterBenchmark {
+
+    private static final String ACCESS_LOGGER = "io.github.acosentini.dms.access";
+    private static final String REQUEST_LOGGER = "io.github.acosentini.dms.security.JwtAuthenticationFilter";
+
+    @Param({"0.0", "0.01", "1.0"})
+    private double successSampleRate;
+
+    private final HttpServlet servlet = new HttpServlet() {
+        @Override
+        protected void service(HttpServletRequest request, HttpServletResponse response) {
+            response.setStatus(HttpServletResponse.SC_OK);
+        }
+    };
+
+    private AccessLogFilter accessLogFilter;
+    private Filter perRequestLoggingFilter;
+    private LoggerContext loggerContext;
+
+    @Setup
+    public void setUp() {
+        loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
+        loggerContext.getLogger(Logger.ROOT_LOGGER_NAME).setLevel(Level.WARN);
+
+        AsyncAppender async = new AsyncAppender();
+        async.setContext(loggerContext);
+        async.setQueueSize(8192);
+        async.setDiscardingThreshold(0);
+        async.setNeverBlock(true);
+        async.addAppender(discardingAppender("access %msg%n"));
+        async.start();
+        attach(ACCESS_LOGGER, async);
+        attach(REQUEST_LOGGER, discardingAppender("%-5level %logger{39} : %msg%n"));
+
+        AccessLogProperties properties = new AccessLogProperties();
+        properties.setSuccessSampleRate(successSampleRate);
+        accessLogFilter = new AccessLogFilter(properties);
+
+        org.slf4j.Logger requestLogger = LoggerFactory.getLogger(REQUEST_LOGGER);
+        perRequestLoggingFilter = (request, response, chain) -> {
+            HttpServletRequest httpRequest = (HttpServletRequest) request;
+            requestLogger.info("Processing request: {} {}", httpRequest.getMethod(), httpRequest.getRequestURI());
+            requestLogger.info("Skipping authentication for public path: {}", httpRequest.getRequestURI());
+            chain.doFilter(request, response);
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        loggerContext.reset();
+    }
+
+    @Benchmark
+    public int noLogging() throws IOException, ServletException {
+        return exchange();
+    }
+
+    @Benchmark
+    public int accessLogFilter() throws IOException, ServletException {
+        return exchange(accessLogFilter);
+    }
+
+    @Benchmark
+    public int perRequestLogging() throws IOException, ServletException {
+        return exchange(perRequestLoggingFilter);
+    }
+
+    private int exchange(Filter... filters) throws IOException, ServletException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/documents/42");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        FilterChain chain = new MockFilterChain(servlet, filters);
+        chain.doFilter(request, response);
+        return response.getStatus();
+    }
+
+    private Appender<ILoggingEvent> discardingAppender(String pattern) {
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(loggerContext);
+        encoder.setPattern("%d{yyyy-MM-dd'T'HH:mm:ss.SSSXXX} " + pattern);
+        encoder.start();
+
+        OutputStreamAppender<ILoggingEvent> appender = new OutputStreamAppender<>();
+        appender.setContext(loggerContext);
+        appender.setEncoder(encoder);
+        appender.setOutputStream(OutputStream.nullOutputStream());
+        appender.start();
+        return appender;
+    }
+
+    private void attach(String name, Appender<ILoggingEvent> appender) {
+        Logger logger = loggerContext.getLogger(name);
+        logger.setLevel(Level.INFO);
+        logger.setAdditive(false);
+        logger.addAppender(appender);
+    }
+}
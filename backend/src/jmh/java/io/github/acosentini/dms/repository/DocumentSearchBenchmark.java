@@ -0,0 +1,199 @@
+package io.github.acosentini.dms.repository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search queries of {@link DocumentRepository} against PostgreSQL, with 10^5 and 10^6
+ * documents spread over ten users, with and without the trigram indexes of
+ * {@link DocumentSearchSchema}. Each operation fetches the first page of 20 ids and the
+ * total count, as a paged search does.
+ *
+ * Needs a database the benchmark may create the dms_search_benchmark schema in, taken
+ * from SPRING_DATASOURCE_URL, SPRING_DATASOURCE_USERNAME and SPRING_DATASOURCE_PASSWORD
+ * (by default the dev database). The documents are generated on the first run with a
+ * given row count and kept for later runs; filling 10^6 takes a few minutes. Drop the
+ * schema after changing how they are generated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DocumentSearchBenchmark {
+
+    private static final String SCHEMA = "dms_search_benchmark";
+    private static final long USER_ID = 1;
+    private static final int USERS = 10;
+    private static final int TAGS_PER_USER = 50;
+    private static final int PAGE_SIZE = 20;
+
+    private static final String[] TABLES = {
+        "CREATE TABLE documents (id bigint PRIMARY KEY, name varchar(255) NOT NULL, content_type varchar(255), " +
+        "size bigint, upload_date timestamp with time zone, user_id bigint NOT NULL)",
+        "CREATE TABLE tags (id bigint PRIMARY KEY, name varchar(255) NOT NULL, owner_id bigint NOT NULL)",
+        "CREATE TABLE document_tags (document_id bigint NOT NULL, tag_id bigint NOT NULL, " +
+        "PRIMARY KEY (document_id, tag_id))"
+    };
+
+    // Names like "invoice_2023_3f2a9c.pdf"; the hash fragment makes every name unique.
+    // Word, year and type are drawn independently of the owner, 1 + i % USERS.
+    private static final String DOCUMENTS =
+        "INSERT INTO documents " +
+        "SELECT i, (ARRAY['invoice','report','contract','scan','photo','minutes','budget','offer','receipt','letter'])[1 + i / 11 % 10] " +
+        "  || '_' || (2000 + i / 7 % 25) || '_' || substr(md5(i::text), 1, 6) || (ARRAY['.pdf','.docx','.png','.txt'])[1 + i / 3 % 4], " +
+        "  (ARRAY['application/pdf','application/vnd.openxmlformats-officedocument.wordprocessingml.document','image/png','text/plain'])[1 + i / 3 % 4], " +
+        "  1000 + i % 100000, now() - i * interval '1 minute', 1 + i % " + USERS + " " +
+        "FROM generate_series(1, ?) i";
+
+    // Tag t belongs to user 1 + (t - 1) % USERS; every document gets two of its owner's tags
+    private static final String TAGS =
+        "INSERT INTO tags " +
+        "SELECT t, (ARRAY['finance','legal','travel','taxes','medical','personal','project','archive'])[1 + t % 8] || '-' || t, " +
+        "  1 + (t - 1) % " + USERS + " " +
+        "FROM generate_series(1, " + USERS * TAGS_PER_USER + ") t";
+
+    private static final String DOCUMENT_TAGS =
+        "INSERT INTO document_tags " +
+        "SELECT i, (1 + i % " + USERS + ") + " + USERS + " * ((i / " + USERS + ") % " + TAGS_PER_USER + ") FROM documents d(i) " +
+        "UNION SELECT i, (1 + i % " + USERS + ") + " + USERS + " * ((i / " + USERS + " + 7) % " + TAGS_PER_USER + ") FROM documents d(i)";
+
+    private static final String[] TRIGRAM_INDEXES = {
+        "idx_documents_name_trgm", "idx_documents_content_type_trgm", "idx_tags_name_trgm"
+    };
+
+    @Param({"100000", "1000000"})
+    private int rows;
+
+    @Param({"true", "false"})
+    private boolean trigramIndexes;
+
+    private SingleConnectionDataSource dataSource;
+    private NamedParameterJdbcTemplate jdbcTemplate;
+    private String rareTerm;
+    private String misspelledName;
+
+    @Setup
+    public void setUp() {
+        dataSource = new SingleConnectionDataSource(
+            env("SPRING_DATASOURCE_URL", "jdbc:postgresql://localhost:5432/dms_db"),
+            env("SPRING_DATASOURCE_USERNAME", "postgres"),
+            env("SPRING_DATASOURCE_PASSWORD", ""),
+            true);
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("CREATE SCHEMA IF NOT EXISTS " + SCHEMA);
+        jdbc.execute("SET search_path TO " + SCHEMA + ", public");
+
+        DocumentSearchSchema schema = new DocumentSearchSchema();
+        ReflectionTestUtils.setField(schema, "jdbcTemplate", jdbc);
+        ReflectionTestUtils.setField(schema, "backfillBatchSize", 50_000);
+
+        boolean populated = jdbc.queryForObject("SELECT to_regclass('documents') IS NOT NULL", Boolean.class)
+            && Objects.equals(jdbc.queryForObject("SELECT count(*) FROM documents", Long.class), (long) rows);
+        if (!populated) {
+            populate(jdbc);
+        }
+
+        schema.afterSingletonsInstantiated();
+        if (!schema.isTrigramAvailable()) {
+            throw new IllegalStateException("pg_trgm is not available in the benchmark database");
+        }
+        schema.backfillSearchVectors();
+        if (trigramIndexes) {
+            schema.createIndexes();
+        } else {
+            for (String index : TRIGRAM_INDEXES) {
+                jdbc.execute("DROP INDEX IF EXISTS " + index);
+            }
+        }
+        jdbc.execute("ANALYZE");
+
+        jdbcTemplate = new NamedParameterJdbcTemplate(jdbc);
+        // The hash fragment of one of the user's documents, matching almost nothing else,
+        // and that document's name with a typo
+        rareTerm = jdbc.queryForObject("SELECT substr(md5('" + USERS + "'), 2, 5)", String.class);
+        misspelledName = jdbc.queryForObject(
+            "SELECT lower(overlay(name placing 'x' from 3 for 1)) FROM documents WHERE id = " + USERS, String.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dataSource.destroy();
+    }
+
+    @Benchmark
+    public long containsCommonWord() {
+        return search("findIdsContaining", "pattern", "%invoice%");
+    }
+
+    @Benchmark
+    public long containsRareFragment() {
+        return search("findIdsContaining", "pattern", "%" + rareTerm + "%");
+    }
+
+    @Benchmark
+    public long fullText() {
+        return search("findIdsByFullText", "query", "invoice:* & 2010:*");
+    }
+
+    @Benchmark
+    public long similar() {
+        return search("findIdsBySimilarity", "term", misspelledName);
+    }
+
+    private long search(String method, String parameter, String value) {
+        Query query = query(method);
+        MapSqlParameterSource parameters = new MapSqlParameterSource(parameter, value).addValue("userId", USER_ID);
+        List<Long> ids = jdbcTemplate.queryForList(query.value() + " LIMIT " + PAGE_SIZE, parameters, Long.class);
+        Long count = jdbcTemplate.queryForObject(query.countQuery(), parameters, Long.class);
+        return ids.size() + Objects.requireNonNull(count);
+    }
+
+    private static Query query(String method) {
+        try {
+            return DocumentRepository.class.getMethod(method, String.class, Long.class, Pageable.class)
+                .getAnnotation(Query.class);
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void populate(JdbcTemplate jdbc) {
+        for (String table : new String[] {"document_tags", "tags", "documents"}) {
+            jdbc.execute("DROP TABLE IF EXISTS " + table);
+        }
+        for (String statement : TABLES) {
+            jdbc.execute(statement);
+        }
+        jdbc.update(DOCUMENTS, rows);
+        jdbc.update(TAGS);
+        jdbc.update(DOCUMENT_TAGS);
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null ? value : defaultValue;
+    }
+}
@@ -0,0 +1,85 @@
+package io.github.acosentini.dms.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Base64;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Signing and verifying access tokens with {@link JwtTokenService}, which derives its keys
+ * and builds its parser once, against the previous JwtTokenProvider code, which handed the
+ * secret string to a new parser on every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JwtTokenServiceBenchmark {
+
+    private static final String SECRET = Base64.getEncoder().encodeToString(new byte[64]);
+
+    private JwtTokenService tokenService;
+    private Claims claims;
+    private Date issuedAt;
+    private Date expiration;
+    private String token;
+    private String perCallToken;
+
+    @Setup
+    public void setUp() {
+        JwtKeyProperties properties = new JwtKeyProperties();
+        properties.setActiveKeyId("current");
+        properties.setSecrets(Map.of("previous", "previousSecret", "current", SECRET));
+        tokenService = new JwtTokenService(properties, SECRET);
+
+        claims = Jwts.claims().setSubject("42");
+        claims.put("username", "alice");
+        issuedAt = new Date();
+        expiration = new Date(issuedAt.getTime() + 3_600_000L);
+        token = tokenService.sign(claims, issuedAt, expiration);
+        perCallToken = signPerCall();
+    }
+
+    @Benchmark
+    public String sign() {
+        return tokenService.sign(claims, issuedAt, expiration);
+    }
+
+    @Benchmark
+    public Claims verify() {
+        return tokenService.verify(token);
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public String signPerCall() {
+        return Jwts.builder()
+            .setClaims(claims)
+            .setIssuedAt(issuedAt)
+            .setExpiration(expiration)
+            .signWith(SignatureAlgorithm.HS512, SECRET)
+            .compact();
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public Claims verifyPerCall() {
+        return Jwts.parser()
+            .setSigningKey(SECRET)
+            .parseClaimsJws(perCallToken)
+            .getBody();
+    }
+}
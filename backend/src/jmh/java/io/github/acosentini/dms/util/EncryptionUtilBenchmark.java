@@ -0,0 +1,79 @@
+package io.github.acosentini.dms.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Compares {@link EncryptionUtil}, which keeps one initialised cipher per thread, with the
+ * previous implementation that derived the key and looked up a cipher on every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+public class EncryptionUtilBenchmark {
+
+    private static final String SECRET = "benchmarkSecretKey";
+
+    @Param({"32", "1024"})
+    private int length;
+
+    private EncryptionUtil encryptionUtil;
+    private String plaintext;
+    private String ciphertext;
+
+    @Setup
+    public void setUp() {
+        encryptionUtil = new EncryptionUtil();
+        ReflectionTestUtils.setField(encryptionUtil, "secret", SECRET);
+        encryptionUtil.init();
+
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'x');
+        plaintext = new String(chars);
+        ciphertext = encryptionUtil.encrypt(plaintext);
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return encryptionUtil.encrypt(plaintext);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return encryptionUtil.decrypt(ciphertext);
+    }
+
+    @Benchmark
+    public String encryptPerCallCipher() throws Exception {
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.ENCRYPT_MODE, perCallKey());
+        byte[] encVal = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(encVal);
+    }
+
+    @Benchmark
+    public String decryptPerCallCipher() throws Exception {
+        Cipher cipher = Cipher.getInstance("AES");
+        cipher.init(Cipher.DECRYPT_MODE, perCallKey());
+        byte[] decValue = cipher.doFinal(Base64.getDecoder().decode(ciphertext));
+        return new String(decValue, StandardCharsets.UTF_8);
+    }
+
+    private static SecretKeySpec perCallKey() {
+        byte[] keyBytes = new byte[16];
+        byte[] secretBytes = SECRET.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(secretBytes, 0, keyBytes, 0, Math.min(secretBytes.length, keyBytes.length));
+        return new SecretKeySpec(keyBytes, "AES");
+    }
+}
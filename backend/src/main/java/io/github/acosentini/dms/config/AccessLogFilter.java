@@ -0,0 +1,127 @@
+package io.github.acosentini.dms.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes a sampled, one-line access log entry per request: method, path, status,
+ * latency and user id in key=value form.
+ *
+ * Entries go to the {@code io.github.acosentini.dms.access} logger, which
+ * logback-spring.xml routes through an asynchronous appender so that request
+ * threads never wait on log I/O. Sample rates are configured per outcome under
+ * {@code app.access-log}; nothing is formatted for requests that are not sampled.
+ * Requests that go async are logged once, when the async processing completes.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class AccessLogFilter extends OncePerRequestFilter {
+
+    /**
+     * Request attribute carrying the authenticated user's id, set by the authentication filter
+     */
+    public static final String USER_ID_ATTRIBUTE = AccessLogFilter.class.getName() + ".userId";
+
+    private static final Logger accessLog = LoggerFactory.getLogger("io.github.acosentini.dms.access");
+
+    private final AccessLogProperties properties;
+
+    public AccessLogFilter(AccessLogProperties properties) {
+        this.properties = properties;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !properties.isEnabled() || !accessLog.isInfoEnabled();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        long start = System.nanoTime();
+        try {
+            filterChain.doFilter(request, response);
+        } catch (IOException | ServletException | RuntimeException ex) {
+            // The container sets the error status only after the exception has left this filter
+            log(request, failureStatus(response), start);
+            throw ex;
+        }
+
+        if (request.isAsyncStarted()) {
+            // Async dispatches skip this filter; log when the whole exchange is done
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    log(request, response.getStatus(), start);
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+        } else {
+            log(request, response.getStatus(), start);
+        }
+    }
+
+    /**
+     * The status a request that failed with an exception ends with: the one already
+     * sent or set as an error, otherwise 500
+     */
+    private static int failureStatus(HttpServletResponse response) {
+        int status = response.getStatus();
+        return response.isCommitted() || status >= 400 ? status : HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    private void log(HttpServletRequest request, int status, long start) {
+        long durationNanos = System.nanoTime() - start;
+
+        double sampleRate = sampleRate(status, durationNanos);
+        if (sampleRate <= 0 || (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return;
+        }
+
+        Object userId = request.getAttribute(USER_ID_ATTRIBUTE);
+        accessLog.info("method={} path={} status={} durationMs={} userId={} sampleRate={}",
+            request.getMethod(),
+            request.getRequestURI(),
+            status,
+            durationNanos / 1_000_000,
+            userId != null ? userId : "-",
+            sampleRate);
+    }
+
+    private double sampleRate(int status, long durationNanos) {
+        if (status >= 500) {
+            return properties.getServerErrorSampleRate();
+        }
+        if (durationNanos >= properties.getSlowThreshold().toNanos()) {
+            return properties.getSlowSampleRate();
+        }
+        if (status >= 400) {
+            return properties.getClientErrorSampleRate();
+        }
+        return properties.getSuccessSampleRate();
+    }
+}
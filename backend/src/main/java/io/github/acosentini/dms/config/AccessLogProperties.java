@@ -0,0 +1,70 @@
+package io.github.acosentini.dms.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Component
+@ConfigurationProperties(prefix = "app.access-log")
+public class AccessLogProperties {
+    
+    private boolean enabled = true;
+    
+    // Requests taking longer than this are logged at the slow sample rate
+    private Duration slowThreshold = Duration.ofSeconds(1);
+    
+    // Fraction of requests logged per outcome, from 0 (none) to 1 (all)
+    private double successSampleRate = 0.01;
+    private double clientErrorSampleRate = 0.1;
+    private double serverErrorSampleRate = 1.0;
+    private double slowSampleRate = 1.0;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getSlowThreshold() {
+        return slowThreshold;
+    }
+
+    public void setSlowThreshold(Duration slowThreshold) {
+        this.slowThreshold = slowThreshold;
+    }
+
+    public double getSuccessSampleRate() {
+        return successSampleRate;
+    }
+
+    public void setSuccessSampleRate(double successSampleRate) {
+        this.successSampleRate = successSampleRate;
+    }
+
+    public double getClientErrorSampleRate() {
+        return clientErrorSampleRate;
+    }
+
+    public void setClientErrorSampleRate(double clientErrorSampleRate) {
+        this.clientErrorSampleRate = clientErrorSampleRate;
+    }
+
+    public double getServerErrorSampleRate() {
+        return serverErrorSampleRate;
+    }
+
+    public void setServerErrorSampleRate(double serverErrorSampleRate) {
+        this.serverErrorSampleRate = serverErrorSampleRate;
+    }
+
+    public double getSlowSampleRate() {
+        return slowSampleRate;
+    }
+
+    public void setSlowSampleRate(double slowSampleRate) {
+        this.slowSampleRate = slowSampleRate;
+    }
+}
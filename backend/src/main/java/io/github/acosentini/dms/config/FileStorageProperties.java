@@ -2,12 +2,36 @@ package io.github.acosentini.dms.config;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
 
 @Component
 @ConfigurationProperties(prefix = "file")
 public class FileStorageProperties {
     
     private String uploadDir;
+    
+    // Upper bound for streamed uploads, which bypass the multipart size limits
+    private DataSize maxUploadSize = DataSize.ofMegabytes(200);
+    
+    // Chunked upload sessions
+    private DataSize uploadChunkSize = DataSize.ofMegabytes(8);
+    private DataSize maxUploadChunkSize = DataSize.ofMegabytes(64);
+    private Duration uploadSessionTimeout = Duration.ofHours(24);
+    
+    // Directory fan-out: number of nested directories and hex characters per level
+    private int shardLevels = 2;
+    private int shardWidth = 2;
+    
+    // Entries in the cache of decrypted storage keys
+    private long storageKeyCacheSize = 10_000;
+    
+    private final LayoutMigration layoutMigration = new LayoutMigration();
+    
+    private final Storage storage = new Storage();
+    
+    private final Encryption encryption = new Encryption();
 
     public String getUploadDir() {
         return uploadDir;
@@ -16,4 +40,232 @@ public class FileStorageProperties {
     public void setUploadDir(String uploadDir) {
         this.uploadDir = uploadDir;
     }
-} 
\ No newline at end of file
+
+    public DataSize getMaxUploadSize() {
+        return maxUploadSize;
+    }
+
+    public void setMaxUploadSize(DataSize maxUploadSize) {
+        this.maxUploadSize = maxUploadSize;
+    }
+
+    public long getStorageKeyCacheSize() {
+        return storageKeyCacheSize;
+    }
+
+    public void setStorageKeyCacheSize(long storageKeyCacheSize) {
+        this.storageKeyCacheSize = storageKeyCacheSize;
+    }
+
+    public DataSize getUploadChunkSize() {
+        return uploadChunkSize;
+    }
+
+    public void setUploadChunkSize(DataSize uploadChunkSize) {
+        this.uploadChunkSize = uploadChunkSize;
+    }
+
+    public DataSize getMaxUploadChunkSize() {
+        return maxUploadChunkSize;
+    }
+
+    public void setMaxUploadChunkSize(DataSize maxUploadChunkSize) {
+        this.maxUploadChunkSize = maxUploadChunkSize;
+    }
+
+    public Duration getUploadSessionTimeout() {
+        return uploadSessionTimeout;
+    }
+
+    public void setUploadSessionTimeout(Duration uploadSessionTimeout) {
+        this.uploadSessionTimeout = uploadSessionTimeout;
+    }
+
+    public int getShardLevels() {
+        return shardLevels;
+    }
+
+    public void setShardLevels(int shardLevels) {
+        this.shardLevels = shardLevels;
+    }
+
+    public int getShardWidth() {
+        return shardWidth;
+    }
+
+    public void setShardWidth(int shardWidth) {
+        this.shardWidth = shardWidth;
+    }
+
+    public LayoutMigration getLayoutMigration() {
+        return layoutMigration;
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public Encryption getEncryption() {
+        return encryption;
+    }
+
+    /**
+     * Background move of files that are not where the configured layout puts them
+     */
+    public static class LayoutMigration {
+
+        private boolean enabled = false;
+        
+        // Files moved before pausing, and the pause, to keep the migration's I/O in check
+        private int batchSize = 500;
+        private Duration batchPause = Duration.ofMillis(200);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        public void setBatchSize(int batchSize) {
+            this.batchSize = batchSize;
+        }
+
+        public Duration getBatchPause() {
+            return batchPause;
+        }
+
+        public void setBatchPause(Duration batchPause) {
+            this.batchPause = batchPause;
+        }
+    }
+
+    /**
+     * At-rest encryption of stored content. Files stored while it was disabled stay
+     * readable after it is enabled, and keep being served with sendfile.
+     */
+    public static class Encryption {
+
+        private boolean enabled = true;
+        
+        // Unit of authentication; a range read decrypts at least one whole chunk
+        private DataSize chunkSize = DataSize.ofKilobytes(64);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getChunkSize() {
+            return chunkSize;
+        }
+
+        public void setChunkSize(DataSize chunkSize) {
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    /**
+     * Backend holding document content. The upload directory is always used for
+     * staging uploads; with the local backend it also holds the stored files.
+     */
+    public static class Storage {
+
+        // local, memory or s3
+        private String type = "local";
+        
+        private final S3 s3 = new S3();
+
+        public String getType() {
+            return type;
+        }
+
+        public void setType(String type) {
+            this.type = type;
+        }
+
+        public S3 getS3() {
+            return s3;
+        }
+    }
+
+    public static class S3 {
+
+        private String bucket;
+        private String region = "us-east-1";
+        
+        // Set for S3-compatible services such as MinIO, e.g. http://localhost:9000
+        private String endpoint;
+        private boolean pathStyleAccess = false;
+        
+        // Static credentials; the default AWS credential chain is used when unset
+        private String accessKey;
+        private String secretKey;
+        
+        private String keyPrefix = "";
+
+        public String getBucket() {
+            return bucket;
+        }
+
+        public void setBucket(String bucket) {
+            this.bucket = bucket;
+        }
+
+        public String getRegion() {
+            return region;
+        }
+
+        public void setRegion(String region) {
+            this.region = region;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+
+        public void setEndpoint(String endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public boolean isPathStyleAccess() {
+            return pathStyleAccess;
+        }
+
+        public void setPathStyleAccess(boolean pathStyleAccess) {
+            this.pathStyleAccess = pathStyleAccess;
+        }
+
+        public String getAccessKey() {
+            return accessKey;
+        }
+
+        public void setAccessKey(String accessKey) {
+            this.accessKey = accessKey;
+        }
+
+        public String getSecretKey() {
+            return secretKey;
+        }
+
+        public void setSecretKey(String secretKey) {
+            this.secretKey = secretKey;
+        }
+
+        public String getKeyPrefix() {
+            return keyPrefix;
+        }
+
+        public void setKeyPrefix(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+    }
+}
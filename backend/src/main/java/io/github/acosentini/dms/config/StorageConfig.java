@@ -0,0 +1,108 @@
+package io.github.acosentini.dms.config;
+
+import io.github.acosentini.dms.storage.ContentCipher;
+import io.github.acosentini.dms.storage.EncryptedStorageBackend;
+import io.github.acosentini.dms.storage.InMemoryStorageBackend;
+import io.github.acosentini.dms.storage.LocalStorageBackend;
+import io.github.acosentini.dms.storage.MeteredStorageBackend;
+import io.github.acosentini.dms.storage.S3StorageBackend;
+import io.github.acosentini.dms.storage.StorageBackend;
+import io.github.acosentini.dms.storage.StorageLayout;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+@Configuration
+public class StorageConfig {
+
+    @Value("${encryption.secret:defaultSecretKey}")
+    private String encryptionSecret;
+
+    @Bean
+    public StorageBackend storageBackend(FileStorageProperties fileStorageProperties, StorageLayout storageLayout,
+                                         MeterRegistry meterRegistry) {
+        String type = fileStorageProperties.getStorage().getType();
+        
+        StorageBackend backend;
+        switch (type) {
+            case "local":
+                backend = new LocalStorageBackend(
+                    Paths.get(fileStorageProperties.getUploadDir()).toAbsolutePath().normalize(),
+                    storageLayout
+                );
+                break;
+            case "memory":
+                backend = new InMemoryStorageBackend();
+                break;
+            case "s3":
+                FileStorageProperties.S3 s3 = fileStorageProperties.getStorage().getS3();
+                backend = new S3StorageBackend(s3Client(s3), s3.getBucket(), s3.getKeyPrefix());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown storage type: " + type);
+        }
+        
+        backend = new MeteredStorageBackend(backend, meterRegistry);
+        
+        FileStorageProperties.Encryption encryption = fileStorageProperties.getEncryption();
+        if (encryption.isEnabled()) {
+            // Outside the metrics so that they report the bytes actually stored
+            backend = new EncryptedStorageBackend(backend,
+                new ContentCipher(contentKey(), (int) encryption.getChunkSize().toBytes()));
+        }
+        
+        return backend;
+    }
+
+    private SecretKeySpec contentKey() {
+        try {
+            // AES-256 key derived from the application secret, separate from the file name key
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update("dms-content-encryption:".getBytes(StandardCharsets.UTF_8));
+            return new SecretKeySpec(digest.digest(encryptionSecret.getBytes(StandardCharsets.UTF_8)), "AES");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    private S3Client s3Client(FileStorageProperties.S3 s3) {
+        if (s3.getBucket() == null || s3.getBucket().isEmpty()) {
+            throw new IllegalArgumentException("file.storage.s3.bucket must be set for the s3 storage type");
+        }
+        
+        S3ClientBuilder builder = S3Client.builder()
+            .region(Region.of(s3.getRegion()))
+            .serviceConfiguration(S3Configuration.builder()
+                .pathStyleAccessEnabled(s3.isPathStyleAccess())
+                .build());
+        
+        if (s3.getEndpoint() != null && !s3.getEndpoint().isEmpty()) {
+            builder.endpointOverride(URI.create(s3.getEndpoint()));
+        }
+        
+        if (s3.getAccessKey() != null && !s3.getAccessKey().isEmpty()) {
+            builder.credentialsProvider(StaticCredentialsProvider.create(
+                AwsBasicCredentials.create(s3.getAccessKey(), s3.getSecretKey())));
+        } else {
+            builder.credentialsProvider(DefaultCredentialsProvider.create());
+        }
+        
+        return builder.build();
+    }
+}
@@ -7,6 +7,7 @@ import io.github.acosentini.dms.dto.TokenRefreshRequest;
 import io.github.acosentini.dms.dto.TokenRefreshResponse;
 import io.github.acosentini.dms.dto.LogoutRequest;
 import io.github.acosentini.dms.model.User;
+import io.github.acosentini.dms.service.RefreshTokenService;
 import io.github.acosentini.dms.service.UserService;
 import io.github.acosentini.dms.security.JwtTokenProvider;
 
@@ -19,6 +20,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.validation.Valid;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/auth")
@@ -33,29 +35,37 @@ public class AuthController {
     @Autowired
     private JwtTokenProvider tokenProvider;
 
+    @Autowired
+    private RefreshTokenService refreshTokenService;
+
+    /**
+     * The password is verified on the password hashing pool; the servlet thread is
+     * released until the response is ready.
+     */
     @PostMapping("/login")
-    public ResponseEntity<?> authenticateUser(@Valid @RequestBody LoginRequest loginRequest) {
-        User user = userService.authenticateUser(loginRequest.getUsername(), loginRequest.getPassword());
-        
-        String accessToken = tokenProvider.generateAccessToken(user);
-        String refreshToken = tokenProvider.generateRefreshToken(user);
-        
-        return ResponseEntity.ok(new JwtResponse(
-            accessToken,
-            refreshToken,
-            user.getId(),
-            user.getUsername()
-        ));
+    public CompletableFuture<ResponseEntity<JwtResponse>> authenticateUser(@Valid @RequestBody LoginRequest loginRequest) {
+        return userService.authenticateUser(loginRequest.getUsername(), loginRequest.getPassword())
+            .thenApply(user -> {
+                String accessToken = tokenProvider.generateAccessToken(user);
+                String refreshToken = refreshTokenService.createRefreshToken(user);
+                
+                return ResponseEntity.ok(new JwtResponse(
+                    accessToken,
+                    refreshToken,
+                    user.getId(),
+                    user.getUsername()
+                ));
+            });
     }
 
     @PostMapping("/refresh")
     public ResponseEntity<?> refreshToken(@Valid @RequestBody TokenRefreshRequest request) {
-        if (!tokenProvider.validateRefreshToken(request.getRefreshToken())) {
+        if (!refreshTokenService.validateRefreshToken(request.getRefreshToken())) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                 .body("Invalid refresh token");
         }
 
-        User user = tokenProvider.getUserFromRefreshToken(request.getRefreshToken());
+        User user = refreshTokenService.getUserFromRefreshToken(request.getRefreshToken());
         String newAccessToken = tokenProvider.generateAccessToken(user);
         
         return ResponseEntity.ok(new TokenRefreshResponse(newAccessToken));
@@ -66,7 +76,7 @@ public class AuthController {
     public ResponseEntity<?> logout(@Valid @RequestBody LogoutRequest request) {
         try {
             logger.info("Processing logout request for token: {}", request.getRefreshToken().substring(0, 10) + "...");
-            tokenProvider.invalidateRefreshToken(request.getRefreshToken());
+            refreshTokenService.invalidateRefreshToken(request.getRefreshToken());
             logger.info("Refresh token invalidated successfully");
             return ResponseEntity.ok().body("Logged out successfully");
         } catch (Exception e) {
@@ -77,12 +87,12 @@ public class AuthController {
     }
 
     @PostMapping("/register")
-    public ResponseEntity<?> registerUser(@Valid @RequestBody RegisterRequest registerRequest) {
+    public CompletableFuture<ResponseEntity<?>> registerUser(@Valid @RequestBody RegisterRequest registerRequest) {
         // Check if username is already taken
         if (userService.existsByUsername(registerRequest.getUsername())) {
-            return ResponseEntity
+            return CompletableFuture.completedFuture(ResponseEntity
                 .badRequest()
-                .body("Error: Username is already taken!");
+                .body("Error: Username is already taken!"));
         }
 
         // Create new user
@@ -91,16 +101,17 @@ public class AuthController {
             registerRequest.getPassword()
         );
 
-        User registeredUser = userService.registerUser(user);
-        
-        String accessToken = tokenProvider.generateAccessToken(registeredUser);
-        String refreshToken = tokenProvider.generateRefreshToken(registeredUser);
-
-        return ResponseEntity.status(HttpStatus.CREATED).body(new JwtResponse(
-            accessToken,
-            refreshToken,
-            registeredUser.getId(),
-            registeredUser.getUsername()
-        ));
+        // Hashed on the password hashing pool, like the login's verification
+        return userService.registerUser(user).thenApply(registeredUser -> {
+            String accessToken = tokenProvider.generateAccessToken(registeredUser);
+            String refreshToken = refreshTokenService.createRefreshToken(registeredUser);
+
+            return ResponseEntity.status(HttpStatus.CREATED).body(new JwtResponse(
+                accessToken,
+                refreshToken,
+                registeredUser.getId(),
+                registeredUser.getUsername()
+            ));
+        });
     }
 } 
\ No newline at end of file
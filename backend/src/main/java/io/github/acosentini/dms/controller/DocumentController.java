@@ -1,34 +1,41 @@
 package io.github.acosentini.dms.controller;
 
+import io.github.acosentini.dms.dto.CursorPage;
+import io.github.acosentini.dms.dto.DocumentBatchRequest;
+import io.github.acosentini.dms.dto.DocumentBatchResponse;
 import io.github.acosentini.dms.dto.DocumentDTO;
 import io.github.acosentini.dms.dto.DocumentResponse;
+import io.github.acosentini.dms.exception.BadRequestException;
 import io.github.acosentini.dms.model.Document;
-import io.github.acosentini.dms.model.User;
 import io.github.acosentini.dms.service.DocumentService;
 import io.github.acosentini.dms.service.FileStorageService;
-import io.github.acosentini.dms.service.UserService;
+import io.github.acosentini.dms.service.StoredContent;
+import io.github.acosentini.dms.service.FileTransferService;
+import io.github.acosentini.dms.service.StoredFile;
+import io.github.acosentini.dms.security.CurrentUser;
+import io.github.acosentini.dms.security.UserPrincipal;
 import io.github.acosentini.dms.dto.DocumentSearchRequest;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
-import org.springframework.format.annotation.DateTimeFormat;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.data.domain.PageRequest;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -41,38 +48,48 @@ public class DocumentController {
     private DocumentService documentService;
     
     @Autowired
-    private UserService userService;
+    private FileStorageService fileStorageService;
     
     @Autowired
-    private FileStorageService fileStorageService;
+    private FileTransferService fileTransferService;
+    
+    @Autowired
+    private ObjectMapper objectMapper;
+    
+    // Size of pages not given one, for cursor pages and POST /search as for the Pageable ones
+    @Value("${spring.data.web.pageable.default-page-size:20}")
+    private int defaultPageSize;
     
     @PostMapping
     public ResponseEntity<DocumentResponse> createDocument(
             @RequestParam("file") MultipartFile file,
             @RequestParam("name") String name,
-            @RequestParam(value = "tagIds", required = false) List<Long> tagIds) {
+            @RequestParam(value = "tagIds", required = false) List<Long> tagIds,
+            @CurrentUser UserPrincipal user) {
         
         try {
-            // Get current authenticated user
-            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-            String username = authentication.getName();
-            User user = userService.getUserByUsername(username);
-            
             // Store file
-            String filePath = fileStorageService.storeFile(file);
+            StoredFile storedFile = fileStorageService.storeFile(file);
             
             // Create document DTO
             DocumentDTO documentDTO = new DocumentDTO();
             documentDTO.setName(name);
-            documentDTO.setFilePath(filePath);
-            documentDTO.setFileSize(file.getSize());
+            documentDTO.setFilePath(storedFile.getEncryptedPath());
+            documentDTO.setFileSize(storedFile.getSize());
             documentDTO.setFileType(file.getContentType());
+            documentDTO.setContentHash(storedFile.getContentHash());
             if (tagIds != null && !tagIds.isEmpty()) {
                 documentDTO.setTagIds(tagIds.stream().collect(Collectors.toSet()));
             }
             
-            // Create document
-            Document document = documentService.createDocument(documentDTO, user.getId());
+            // Create document, removing the stored file again if that fails
+            Document document;
+            try {
+                document = documentService.createDocument(documentDTO, user.getId());
+            } catch (RuntimeException e) {
+                fileStorageService.deleteFile(storedFile.getEncryptedPath());
+                throw e;
+            }
             
             // Create response
             DocumentResponse response = new DocumentResponse(
@@ -89,35 +106,80 @@ public class DocumentController {
         }
     }
     
-    @GetMapping
-    public ResponseEntity<Page<DocumentResponse>> getAllDocuments(Pageable pageable) {
-        // Get current authenticated user
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication.getName();
-        User user = userService.getUserByUsername(username);
+    /**
+     * Upload a document as the raw request body. Unlike the multipart endpoint the
+     * body is not spooled to a temporary file first; it is written straight into
+     * storage in a single pass. The request's Content-Type is recorded as the
+     * document's content type.
+     */
+    @PostMapping("/stream")
+    public ResponseEntity<DocumentResponse> createDocumentFromStream(
+            @RequestParam("name") String name,
+            @RequestParam(value = "fileName", required = false) String fileName,
+            @RequestParam(value = "tagIds", required = false) List<Long> tagIds,
+            HttpServletRequest request,
+            @CurrentUser UserPrincipal user) throws IOException {
+        
+        // Store file straight from the request body
+        StoredFile storedFile = fileStorageService.storeFile(request.getInputStream(), fileName != null ? fileName : name);
+        
+        // Create document DTO
+        DocumentDTO documentDTO = new DocumentDTO();
+        documentDTO.setName(name);
+        documentDTO.setFilePath(storedFile.getEncryptedPath());
+        documentDTO.setFileSize(storedFile.getSize());
+        documentDTO.setFileType(request.getContentType());
+        documentDTO.setContentHash(storedFile.getContentHash());
+        if (tagIds != null && !tagIds.isEmpty()) {
+            documentDTO.setTagIds(tagIds.stream().collect(Collectors.toSet()));
+        }
         
-        // Get documents for user
-        Page<Document> documents = documentService.getDocumentsByUserId(user.getId(), pageable);
+        // Create document, removing the stored file again if that fails
+        Document document;
+        try {
+            document = documentService.createDocument(documentDTO, user.getId());
+        } catch (RuntimeException e) {
+            fileStorageService.deleteFile(storedFile.getEncryptedPath());
+            throw e;
+        }
         
-        // Map to response
-        Page<DocumentResponse> response = documents.map(document -> new DocumentResponse(
+        // Create response
+        DocumentResponse response = new DocumentResponse(
             document.getId(),
             document.getName(),
             document.getContentType(),
             document.getUploadDate(),
             document.getTags().stream().map(tag -> tag.getId()).collect(Collectors.toSet())
-        ));
+        );
+        
+        return ResponseEntity.status(HttpStatus.CREATED).body(response);
+    }
+    
+    @GetMapping
+    public ResponseEntity<Page<DocumentResponse>> getAllDocuments(Pageable pageable, @CurrentUser UserPrincipal user) {
+        // Get documents for user
+        Page<DocumentResponse> response = documentService.getDocumentsByUserId(user.getId(), pageable);
         
         return ResponseEntity.ok(response);
     }
     
+    /**
+     * Keyset-paginated variant of the listing, selected by the cursor parameter
+     * (empty for the first page). Pages cost the same however deep they are, and
+     * the total is only counted when includeCount is set.
+     */
+    @GetMapping(params = "cursor")
+    public ResponseEntity<CursorPage<DocumentResponse>> getAllDocumentsByCursor(
+            @RequestParam String cursor,
+            @RequestParam(defaultValue = "${spring.data.web.pageable.default-page-size:20}") int size,
+            @RequestParam(defaultValue = "false") boolean includeCount,
+            @CurrentUser UserPrincipal user) {
+        
+        return ResponseEntity.ok(documentService.getDocumentsByUserId(user.getId(), cursor, size, includeCount));
+    }
+    
     @GetMapping("/{id}")
-    public ResponseEntity<DocumentResponse> getDocumentById(@PathVariable Long id) {
-        // Get current authenticated user
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication.getName();
-        User user = userService.getUserByUsername(username);
-        
+    public ResponseEntity<DocumentResponse> getDocumentById(@PathVariable Long id, @CurrentUser UserPrincipal user) {
         // Get document
         Document document = documentService.getDocumentById(id);
         
@@ -139,52 +201,43 @@ public class DocumentController {
     }
     
     @GetMapping("/download/{id}")
-    public ResponseEntity<Resource> downloadDocument(@PathVariable Long id, HttpServletRequest request) {
-        // Get current authenticated user
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication.getName();
-        User user = userService.getUserByUsername(username);
-        
+    public void downloadDocument(@PathVariable Long id, HttpServletRequest request, HttpServletResponse response, @CurrentUser UserPrincipal user) {
         // Get document
         Document document = documentService.getDocumentById(id);
         
         // Check if document belongs to user
         if (!document.getOwner().getId().equals(user.getId())) {
-            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            return;
         }
         
-        // Load file as resource
-        Resource resource = fileStorageService.loadFileAsResource(document.getEncryptedPath());
+        // Resolve the stored content
+        StoredContent content = fileStorageService.loadContent(document.getEncryptedPath());
         
-        // Try to determine file's content type
-        String contentType = null;
-        try {
-            contentType = request.getServletContext().getMimeType(resource.getFile().getAbsolutePath());
-        } catch (IOException ex) {
-            // Fallback to the document's content type
-            contentType = document.getContentType();
-        }
+        // Use the stored size so the response carries a Content-Length without touching the file
+        long length = document.getSize() != null
+            ? document.getSize()
+            : fileStorageService.getFileSize(document.getEncryptedPath());
         
-        // Fallback to the default content type if type could not be determined
+        // Fallback to the default content type if none was recorded at upload
+        String contentType = document.getContentType();
         if (contentType == null) {
-            contentType = "application/octet-stream";
+            contentType = MediaType.APPLICATION_OCTET_STREAM_VALUE;
         }
         
-        return ResponseEntity.ok()
-            .contentType(MediaType.parseMediaType(contentType))
-            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + document.getName() + "\"")
-            .body(resource);
+        // Validators for conditional and If-Range requests
+        String etag = documentService.getEntityTag(document);
+        long lastModified = document.getUploadDate() != null ? document.getUploadDate().toInstant().toEpochMilli() : -1;
+        
+        fileTransferService.sendFile(content, length, contentType, document.getName(), etag, lastModified,
+            request, response);
     }
     
     @PutMapping("/{id}")
     public ResponseEntity<DocumentResponse> updateDocument(
             @PathVariable Long id,
-            @Valid @RequestBody DocumentDTO documentDTO) {
-        
-        // Get current authenticated user
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication.getName();
-        User user = userService.getUserByUsername(username);
+            @Valid @RequestBody DocumentDTO documentDTO,
+            @CurrentUser UserPrincipal user) {
         
         // Get document
         Document document = documentService.getDocumentById(id);
@@ -210,12 +263,7 @@ public class DocumentController {
     }
     
     @DeleteMapping("/{id}")
-    public ResponseEntity<?> deleteDocument(@PathVariable Long id) {
-        // Get current authenticated user
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication.getName();
-        User user = userService.getUserByUsername(username);
-        
+    public ResponseEntity<?> deleteDocument(@PathVariable Long id, @CurrentUser UserPrincipal user) {
         // Get document
         Document document = documentService.getDocumentById(id);
         
@@ -230,115 +278,174 @@ public class DocumentController {
         return ResponseEntity.ok().build();
     }
     
-    @GetMapping("/search")
-    public ResponseEntity<Page<DocumentResponse>> searchDocuments(
-            @RequestParam(required = false) String searchTerm,
-            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) ZonedDateTime startDate,
-            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) ZonedDateTime endDate,
-            @RequestParam(required = false) List<Long> tagIds,
-            Pageable pageable) {
-        
-        // Get current authenticated user
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication.getName();
-        User user = userService.getUserByUsername(username);
+    /**
+     * Batch operations: each applies one operation to up to app.documentBatchMaxSize
+     * documents in a single transaction. The whole batch fails if any document does
+     * not belong to the user.
+     */
+    @PostMapping("/batch/delete")
+    public ResponseEntity<DocumentBatchResponse> deleteDocuments(
+            @Valid @RequestBody DocumentBatchRequest batchRequest,
+            @CurrentUser UserPrincipal user) {
+        
+        int count = documentService.deleteDocuments(batchRequest.getDocumentIds(), user.getId());
+        
+        return ResponseEntity.ok(new DocumentBatchResponse(count));
+    }
+    
+    @PostMapping("/batch/tags")
+    public ResponseEntity<DocumentBatchResponse> addTagsToDocuments(
+            @Valid @RequestBody DocumentBatchRequest batchRequest,
+            @CurrentUser UserPrincipal user) {
         
-        // Search documents
-        Page<Document> documents = documentService.searchDocuments(
-            user.getId(),
-            searchTerm,
-            startDate,
-            endDate,
-            tagIds,
-            pageable
+        int count = documentService.addTagsToDocuments(batchRequest.getDocumentIds(), batchRequest.getTagIds(), user.getId());
+        
+        return ResponseEntity.ok(new DocumentBatchResponse(count));
+    }
+    
+    @PostMapping("/batch/tags/remove")
+    public ResponseEntity<DocumentBatchResponse> removeTagsFromDocuments(
+            @Valid @RequestBody DocumentBatchRequest batchRequest,
+            @CurrentUser UserPrincipal user) {
+        
+        int count = documentService.removeTagsFromDocuments(batchRequest.getDocumentIds(), batchRequest.getTagIds(), user.getId());
+        
+        return ResponseEntity.ok(new DocumentBatchResponse(count));
+    }
+    
+    @PostMapping("/batch/update")
+    public ResponseEntity<DocumentBatchResponse> updateDocuments(
+            @Valid @RequestBody DocumentBatchRequest batchRequest,
+            @CurrentUser UserPrincipal user) {
+        
+        int count = documentService.updateDocuments(
+            batchRequest.getDocumentIds(),
+            batchRequest.getContentType(),
+            batchRequest.getNames(),
+            user.getId()
         );
         
-        // Map to response
-        Page<DocumentResponse> response = documents.map(document -> new DocumentResponse(
-            document.getId(),
-            document.getName(),
-            document.getContentType(),
-            document.getUploadDate(),
-            document.getTags().stream().map(tag -> tag.getId()).collect(Collectors.toSet())
-        ));
+        return ResponseEntity.ok(new DocumentBatchResponse(count));
+    }
+    
+    /**
+     * Search with any combination of term, tags, date range, content types and size.
+     * The term is matched as a substring unless mode is FULL_TEXT or SIMILAR.
+     * With a cursor parameter (empty for the first page) the results are paged by
+     * keyset, newest first, and returned as a {@link CursorPage}.
+     */
+    @GetMapping("/search")
+    public ResponseEntity<?> searchDocuments(
+            DocumentSearchRequest searchRequest,
+            Pageable pageable,
+            @CurrentUser UserPrincipal user) {
+        
+        if (searchRequest.getCursor() != null) {
+            return ResponseEntity.ok(documentService.searchDocuments(
+                user.getId(), searchRequest, searchRequest.getCursor(), pageable.getPageSize()));
+        }
+        
+        // Search documents
+        Page<DocumentResponse> response = documentService.searchDocuments(user.getId(), searchRequest, pageable);
         
         return ResponseEntity.ok(response);
     }
 
     @PostMapping("/search")
-    public ResponseEntity<Page<DocumentResponse>> searchDocumentsPost(
-            @RequestBody DocumentSearchRequest searchRequest) {
-        
-        // Get current authenticated user
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication.getName();
-        User user = userService.getUserByUsername(username);
-        
-        // Create pageable from request if provided
-        Pageable pageable = Pageable.unpaged();
-        if (searchRequest.getPage() != null && searchRequest.getSize() != null) {
-            pageable = PageRequest.of(searchRequest.getPage(), searchRequest.getSize());
+    public ResponseEntity<?> searchDocumentsPost(
+            @RequestBody DocumentSearchRequest searchRequest,
+            @CurrentUser UserPrincipal user) {
+        
+        if (searchRequest.getCursor() != null) {
+            int size = searchRequest.getSize() != null ? searchRequest.getSize() : defaultPageSize;
+            return ResponseEntity.ok(documentService.searchDocuments(
+                user.getId(), searchRequest, searchRequest.getCursor(), size));
         }
         
-        // Search documents
-        Page<Document> documents = documentService.searchDocuments(
-            user.getId(),
-            searchRequest.getSearchTerm(),
-            searchRequest.getStartDate(),
-            searchRequest.getEndDate(),
-            searchRequest.getTagIds(),
-            pageable
-        );
+        // Always paged; the service caps the size. Use /search/export to get everything.
+        int page = searchRequest.getPage() != null ? searchRequest.getPage() : 0;
+        int size = searchRequest.getSize() != null ? searchRequest.getSize() : defaultPageSize;
+        if (page < 0 || size < 1) {
+            throw new BadRequestException("Page must not be negative and size must be positive");
+        }
+        Pageable pageable = PageRequest.of(page, size);
         
-        // Map to response
-        Page<DocumentResponse> response = documents.map(document -> new DocumentResponse(
-            document.getId(),
-            document.getName(),
-            document.getContentType(),
-            document.getUploadDate(),
-            document.getTags().stream().map(tag -> tag.getId()).collect(Collectors.toSet())
-        ));
+        // Search documents
+        Page<DocumentResponse> response = documentService.searchDocuments(user.getId(), searchRequest, pageable);
         
         return ResponseEntity.ok(response);
     }
     
+    /**
+     * Export every document matching the search as newline-delimited JSON, one
+     * document per line, newest first. The response is streamed while the rows are
+     * read from the database, so it can be arbitrarily large.
+     */
+    @GetMapping(value = "/search/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void exportDocuments(DocumentSearchRequest searchRequest, HttpServletResponse response,
+                                @CurrentUser UserPrincipal user) throws IOException {
+        writeExport(searchRequest, response, user);
+    }
+    
+    @PostMapping(value = "/search/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void exportDocumentsPost(@RequestBody DocumentSearchRequest searchRequest, HttpServletResponse response,
+                                    @CurrentUser UserPrincipal user) throws IOException {
+        writeExport(searchRequest, response, user);
+    }
+    
+    private void writeExport(DocumentSearchRequest searchRequest, HttpServletResponse response, UserPrincipal user)
+            throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        OutputStream out = response.getOutputStream();
+        
+        try {
+            documentService.exportDocuments(user.getId(), searchRequest, batch -> {
+                try {
+                    for (DocumentResponse document : batch) {
+                        out.write(objectMapper.writeValueAsBytes(document));
+                        out.write('\n');
+                    }
+                    // Hand each batch to the client instead of buffering the whole export
+                    out.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            // Typically the client went away; nothing more can be sent
+            throw e.getCause();
+        }
+    }
+    
     @GetMapping("/tag/{tagId}")
     public ResponseEntity<List<DocumentResponse>> getDocumentsByTag(
             @PathVariable Long tagId,
-            Pageable pageable) {
-        
-        // Get current authenticated user
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication.getName();
-        User user = userService.getUserByUsername(username);
+            Pageable pageable,
+            @CurrentUser UserPrincipal user) {
         
-        // Get documents by tag
-        Page<Document> documents = documentService.getDocumentsByTagId(tagId, pageable);
+        // Get the user's documents by tag
+        Page<DocumentResponse> documents = documentService.getDocumentsByTagId(tagId, user.getId(), pageable);
         
-        // Filter documents by user and convert to list
-        List<DocumentResponse> response = documents.getContent().stream()
-            .filter(document -> document.getOwner() != null && document.getOwner().getId().equals(user.getId()))
-            .map(document -> new DocumentResponse(
-                document.getId(),
-                document.getName(),
-                document.getContentType(),
-                document.getUploadDate(),
-                document.getTags().stream().map(tag -> tag.getId()).collect(Collectors.toSet())
-            ))
-            .collect(Collectors.toList());
+        return ResponseEntity.ok(documents.getContent());
+    }
+    
+    @GetMapping(value = "/tag/{tagId}", params = "cursor")
+    public ResponseEntity<CursorPage<DocumentResponse>> getDocumentsByTagByCursor(
+            @PathVariable Long tagId,
+            @RequestParam String cursor,
+            @RequestParam(defaultValue = "${spring.data.web.pageable.default-page-size:20}") int size,
+            @RequestParam(defaultValue = "false") boolean includeCount,
+            @CurrentUser UserPrincipal user) {
         
-        return ResponseEntity.ok(response);
+        return ResponseEntity.ok(documentService.getDocumentsByTagId(tagId, user.getId(), cursor, size, includeCount));
     }
     
     @PostMapping("/{documentId}/tags/{tagId}")
     public ResponseEntity<DocumentResponse> addTagToDocument(
             @PathVariable Long documentId,
-            @PathVariable Long tagId) {
-        
-        // Get current authenticated user
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication.getName();
-        User user = userService.getUserByUsername(username);
+            @PathVariable Long tagId,
+            @CurrentUser UserPrincipal user) {
         
         // Get document
         Document document = documentService.getDocumentById(documentId);
@@ -366,12 +473,8 @@ public class DocumentController {
     @DeleteMapping("/{documentId}/tags/{tagId}")
     public ResponseEntity<DocumentResponse> removeTagFromDocument(
             @PathVariable Long documentId,
-            @PathVariable Long tagId) {
-        
-        // Get current authenticated user
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication.getName();
-        User user = userService.getUserByUsername(username);
+            @PathVariable Long tagId,
+            @CurrentUser UserPrincipal user) {
         
         // Get document
         Document document = documentService.getDocumentById(documentId);
@@ -2,15 +2,13 @@ package io.github.acosentini.dms.controller;
 
 import io.github.acosentini.dms.dto.TagResponse;
 import io.github.acosentini.dms.model.Tag;
-import io.github.acosentini.dms.model.User;
 import io.github.acosentini.dms.service.TagService;
-import io.github.acosentini.dms.service.UserService;
+import io.github.acosentini.dms.security.CurrentUser;
+import io.github.acosentini.dms.security.UserPrincipal;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 
 import javax.validation.Valid;
@@ -25,16 +23,8 @@ public class TagController {
     @Autowired
     private TagService tagService;
     
-    @Autowired
-    private UserService userService;
-    
     @GetMapping
-    public ResponseEntity<List<TagResponse>> getAllTags() {
-        // Get current authenticated user
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication.getName();
-        User user = userService.getUserByUsername(username);
-        
+    public ResponseEntity<List<TagResponse>> getAllTags(@CurrentUser UserPrincipal user) {
         // Get tags owned by this user
         List<Tag> tags = tagService.getTagsByUserId(user.getId());
         
@@ -46,12 +36,7 @@ public class TagController {
     }
     
     @GetMapping("/{id}")
-    public ResponseEntity<TagResponse> getTagById(@PathVariable Long id) {
-        // Get current authenticated user
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication.getName();
-        User user = userService.getUserByUsername(username);
-        
+    public ResponseEntity<TagResponse> getTagById(@PathVariable Long id, @CurrentUser UserPrincipal user) {
         Tag tag = tagService.getTagById(id);
         
         // Verify tag ownership
@@ -65,12 +50,7 @@ public class TagController {
     }
     
     @PostMapping
-    public ResponseEntity<TagResponse> createTag(@Valid @RequestBody Tag tag) {
-        // Get current authenticated user
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication.getName();
-        User user = userService.getUserByUsername(username);
-        
+    public ResponseEntity<TagResponse> createTag(@Valid @RequestBody Tag tag, @CurrentUser UserPrincipal user) {
         Tag createdTag = tagService.createTag(tag, user.getId());
         
         TagResponse response = new TagResponse(createdTag.getId(), createdTag.getName());
@@ -79,12 +59,7 @@ public class TagController {
     }
     
     @PutMapping("/{id}")
-    public ResponseEntity<TagResponse> updateTag(@PathVariable Long id, @Valid @RequestBody Tag tagDetails) {
-        // Get current authenticated user
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication.getName();
-        User user = userService.getUserByUsername(username);
-        
+    public ResponseEntity<TagResponse> updateTag(@PathVariable Long id, @Valid @RequestBody Tag tagDetails, @CurrentUser UserPrincipal user) {
         try {
             Tag updatedTag = tagService.updateTag(id, tagDetails, user.getId());
             
@@ -98,12 +73,7 @@ public class TagController {
     }
     
     @DeleteMapping("/{id}")
-    public ResponseEntity<?> deleteTag(@PathVariable Long id) {
-        // Get current authenticated user
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication.getName();
-        User user = userService.getUserByUsername(username);
-        
+    public ResponseEntity<?> deleteTag(@PathVariable Long id, @CurrentUser UserPrincipal user) {
         try {
             tagService.deleteTag(id, user.getId());
             return ResponseEntity.ok().build();
@@ -114,12 +84,7 @@ public class TagController {
     }
     
     @GetMapping("/search")
-    public ResponseEntity<List<TagResponse>> searchTags(@RequestParam String keyword) {
-        // Get current authenticated user
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication.getName();
-        User user = userService.getUserByUsername(username);
-        
+    public ResponseEntity<List<TagResponse>> searchTags(@RequestParam String keyword, @CurrentUser UserPrincipal user) {
         // Search tags owned by this user
         List<Tag> tags = tagService.searchTagsByUser(keyword, user.getId());
         
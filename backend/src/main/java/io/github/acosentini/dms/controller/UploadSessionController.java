@@ -0,0 +1,102 @@
+package io.github.acosentini.dms.controller;
+
+import io.github.acosentini.dms.dto.DocumentResponse;
+import io.github.acosentini.dms.dto.UploadSessionRequest;
+import io.github.acosentini.dms.dto.UploadSessionResponse;
+import io.github.acosentini.dms.model.Document;
+import io.github.acosentini.dms.model.UploadSession;
+import io.github.acosentini.dms.service.UploadSessionService;
+import io.github.acosentini.dms.security.CurrentUser;
+import io.github.acosentini.dms.security.UserPrincipal;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.validation.Valid;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Resumable uploads: open a session, PUT numbered chunks (in any order, possibly
+ * in parallel), query which chunks have arrived, then complete the session to
+ * create the document. While a session is being completed, further complete,
+ * chunk and abort requests on it get 409 Conflict.
+ */
+@RestController
+@RequestMapping("/documents/uploads")
+@CrossOrigin(origins = "*", maxAge = 3600)
+public class UploadSessionController {
+
+    @Autowired
+    private UploadSessionService uploadSessionService;
+    
+    @PostMapping
+    public ResponseEntity<UploadSessionResponse> openSession(@Valid @RequestBody UploadSessionRequest request, @CurrentUser UserPrincipal user) {
+        UploadSession session = uploadSessionService.openSession(request, user.getId());
+        
+        return ResponseEntity.status(HttpStatus.CREATED).body(toResponse(session, List.of()));
+    }
+    
+    @GetMapping("/{sessionId}")
+    public ResponseEntity<UploadSessionResponse> getSession(@PathVariable String sessionId, @CurrentUser UserPrincipal user) {
+        UploadSession session = uploadSessionService.getSession(sessionId, user.getId());
+        List<Integer> receivedChunks = uploadSessionService.getReceivedChunks(sessionId);
+        
+        return ResponseEntity.ok(toResponse(session, receivedChunks));
+    }
+    
+    @PutMapping("/{sessionId}/chunks/{chunkIndex}")
+    public ResponseEntity<?> uploadChunk(
+            @PathVariable String sessionId,
+            @PathVariable int chunkIndex,
+            HttpServletRequest request,
+            @CurrentUser UserPrincipal user) throws IOException {
+        
+        uploadSessionService.writeChunk(sessionId, chunkIndex, request.getInputStream(), user.getId());
+        
+        return ResponseEntity.noContent().build();
+    }
+    
+    @PostMapping("/{sessionId}/complete")
+    public ResponseEntity<DocumentResponse> completeSession(@PathVariable String sessionId, @CurrentUser UserPrincipal user) {
+        Document document = uploadSessionService.completeSession(sessionId, user.getId());
+        
+        // Create response
+        DocumentResponse response = new DocumentResponse(
+            document.getId(),
+            document.getName(),
+            document.getContentType(),
+            document.getUploadDate(),
+            document.getTags().stream().map(tag -> tag.getId()).collect(Collectors.toSet())
+        );
+        
+        return ResponseEntity.status(HttpStatus.CREATED).body(response);
+    }
+    
+    @DeleteMapping("/{sessionId}")
+    public ResponseEntity<?> abortSession(@PathVariable String sessionId, @CurrentUser UserPrincipal user) {
+        uploadSessionService.abortSession(sessionId, user.getId());
+        
+        return ResponseEntity.ok().build();
+    }
+    
+    private UploadSessionResponse toResponse(UploadSession session, List<Integer> receivedChunks) {
+        long receivedBytes = receivedChunks.stream()
+            .mapToLong(session::getChunkLength)
+            .sum();
+        
+        return new UploadSessionResponse(
+            session.getId(),
+            session.getTotalSize(),
+            session.getChunkSize(),
+            session.getChunkCount(),
+            receivedChunks,
+            receivedBytes,
+            session.getExpiresAt()
+        );
+    }
+}
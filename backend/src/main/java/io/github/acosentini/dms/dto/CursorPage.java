@@ -0,0 +1,48 @@
+package io.github.acosentini.dms.dto;
+
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated listing. The next page is requested with
+ * nextCursor, which is null on the last page. The total is only counted on
+ * request and is null otherwise.
+ */
+public class CursorPage<T> {
+    
+    private List<T> content;
+    private String nextCursor;
+    private Long totalElements;
+
+    public CursorPage() {
+    }
+
+    public CursorPage(List<T> content, String nextCursor, Long totalElements) {
+        this.content = content;
+        this.nextCursor = nextCursor;
+        this.totalElements = totalElements;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    public void setContent(List<T> content) {
+        this.content = content;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public Long getTotalElements() {
+        return totalElements;
+    }
+
+    public void setTotalElements(Long totalElements) {
+        this.totalElements = totalElements;
+    }
+}
@@ -0,0 +1,56 @@
+package io.github.acosentini.dms.dto;
+
+import javax.validation.constraints.NotEmpty;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class DocumentBatchRequest {
+    
+    @NotEmpty(message = "Document ids cannot be empty")
+    private List<Long> documentIds;
+    
+    // Tags to add or remove
+    private Set<Long> tagIds;
+    
+    // Metadata update: content type applied to every document
+    private String contentType;
+    
+    // Metadata update: new name by document id
+    private Map<Long, String> names;
+    
+    public DocumentBatchRequest() {
+    }
+    
+    public List<Long> getDocumentIds() {
+        return documentIds;
+    }
+    
+    public void setDocumentIds(List<Long> documentIds) {
+        this.documentIds = documentIds;
+    }
+    
+    public Set<Long> getTagIds() {
+        return tagIds;
+    }
+    
+    public void setTagIds(Set<Long> tagIds) {
+        this.tagIds = tagIds;
+    }
+    
+    public String getContentType() {
+        return contentType;
+    }
+    
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+    
+    public Map<Long, String> getNames() {
+        return names;
+    }
+    
+    public void setNames(Map<Long, String> names) {
+        this.names = names;
+    }
+}
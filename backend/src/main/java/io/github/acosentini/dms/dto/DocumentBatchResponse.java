@@ -0,0 +1,21 @@
+package io.github.acosentini.dms.dto;
+
+public class DocumentBatchResponse {
+    
+    private int documentCount;
+
+    public DocumentBatchResponse() {
+    }
+
+    public DocumentBatchResponse(int documentCount) {
+        this.documentCount = documentCount;
+    }
+
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    public void setDocumentCount(int documentCount) {
+        this.documentCount = documentCount;
+    }
+}
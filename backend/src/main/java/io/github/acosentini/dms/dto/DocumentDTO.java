@@ -9,6 +9,7 @@ public class DocumentDTO {
     private String filePath;
     private Long fileSize;
     private String fileType;
+    private String contentHash;
     private Set<Long> tagIds;
     
     public DocumentDTO() {
@@ -54,6 +55,14 @@ public class DocumentDTO {
         this.fileType = fileType;
     }
     
+    public String getContentHash() {
+        return contentHash;
+    }
+    
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+    
     public Set<Long> getTagIds() {
         return tagIds;
     }
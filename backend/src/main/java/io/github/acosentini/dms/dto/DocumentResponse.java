@@ -1,6 +1,7 @@
 package io.github.acosentini.dms.dto;
 
 import java.time.ZonedDateTime;
+import java.util.HashSet;
 import java.util.Set;
 
 public class DocumentResponse {
@@ -14,6 +15,11 @@ public class DocumentResponse {
     public DocumentResponse() {
     }
 
+    // Used by the listing queries of DocumentRepository; tag ids are filled in later
+    public DocumentResponse(Long id, String name, String contentType, ZonedDateTime uploadDate) {
+        this(id, name, contentType, uploadDate, new HashSet<>());
+    }
+
     public DocumentResponse(Long id, String name, String contentType, ZonedDateTime uploadDate, Set<Long> tagIds) {
         this.id = id;
         this.name = name;
@@ -0,0 +1,17 @@
+package io.github.acosentini.dms.dto;
+
+/**
+ * How the search term of a document search is matched
+ */
+public enum DocumentSearchMode {
+    
+    // Ranked full-text match of whole words and word prefixes in name, tags and content type;
+    // "voice" finds "voice memo" but not "invoice"
+    FULL_TEXT,
+    
+    // Case-insensitive substring match of name, tags and content type, newest first (the default)
+    CONTAINS,
+    
+    // "Did you mean": trigram similarity to name and tags, most similar first; needs pg_trgm
+    SIMILAR
+}
@@ -1,15 +1,32 @@
 package io.github.acosentini.dms.dto;
 
+import org.springframework.format.annotation.DateTimeFormat;
+
 import java.time.ZonedDateTime;
 import java.util.List;
 
 public class DocumentSearchRequest {
     private String searchTerm;
+    // Substring matching unless full-text or similarity search is asked for
+    private DocumentSearchMode mode = DocumentSearchMode.CONTAINS;
+    // Either bound may be left open
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
     private ZonedDateTime startDate;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
     private ZonedDateTime endDate;
     private List<Long> tagIds;
+    private TagMatch tagMatch = TagMatch.ANY;
+    // Exact types, or a whole family such as "image/*"
+    private List<String> contentTypes;
+    // Size bounds in bytes
+    private Long minSize;
+    private Long maxSize;
     private Integer page;
     private Integer size;
+    // Keyset pagination: empty for the first page, then the nextCursor of the previous one
+    private String cursor;
+    // Keyset pagination only: whether to count all matches as well
+    private boolean includeCount;
     
     public DocumentSearchRequest() {
     }
@@ -22,6 +39,14 @@ public class DocumentSearchRequest {
         this.searchTerm = searchTerm;
     }
     
+    public DocumentSearchMode getMode() {
+        return mode;
+    }
+    
+    public void setMode(DocumentSearchMode mode) {
+        this.mode = mode;
+    }
+    
     public ZonedDateTime getStartDate() {
         return startDate;
     }
@@ -46,6 +71,38 @@ public class DocumentSearchRequest {
         this.tagIds = tagIds;
     }
     
+    public TagMatch getTagMatch() {
+        return tagMatch;
+    }
+    
+    public void setTagMatch(TagMatch tagMatch) {
+        this.tagMatch = tagMatch;
+    }
+    
+    public List<String> getContentTypes() {
+        return contentTypes;
+    }
+    
+    public void setContentTypes(List<String> contentTypes) {
+        this.contentTypes = contentTypes;
+    }
+    
+    public Long getMinSize() {
+        return minSize;
+    }
+    
+    public void setMinSize(Long minSize) {
+        this.minSize = minSize;
+    }
+    
+    public Long getMaxSize() {
+        return maxSize;
+    }
+    
+    public void setMaxSize(Long maxSize) {
+        this.maxSize = maxSize;
+    }
+    
     public Integer getPage() {
         return page;
     }
@@ -61,4 +118,20 @@ public class DocumentSearchRequest {
     public void setSize(Integer size) {
         this.size = size;
     }
-}
\ No newline at end of file
+    
+    public String getCursor() {
+        return cursor;
+    }
+    
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+    
+    public boolean isIncludeCount() {
+        return includeCount;
+    }
+    
+    public void setIncludeCount(boolean includeCount) {
+        this.includeCount = includeCount;
+    }
+}
@@ -0,0 +1,9 @@
+package io.github.acosentini.dms.dto;
+
+/**
+ * Whether a document must carry every requested tag or at least one of them
+ */
+public enum TagMatch {
+    ALL,
+    ANY
+}
@@ -0,0 +1,77 @@
+package io.github.acosentini.dms.dto;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+import java.util.Set;
+
+public class UploadSessionRequest {
+    
+    @NotBlank(message = "Name cannot be blank")
+    private String name;
+    
+    private String fileName;
+    
+    private String contentType;
+    
+    @NotNull(message = "Total size is required")
+    @Positive(message = "Total size must be positive")
+    private Long totalSize;
+    
+    // Optional; the server default is used when absent
+    @Positive(message = "Chunk size must be positive")
+    private Integer chunkSize;
+    
+    private Set<Long> tagIds;
+    
+    public UploadSessionRequest() {
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public void setName(String name) {
+        this.name = name;
+    }
+    
+    public String getFileName() {
+        return fileName;
+    }
+    
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+    
+    public String getContentType() {
+        return contentType;
+    }
+    
+    public void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+    
+    public Long getTotalSize() {
+        return totalSize;
+    }
+    
+    public void setTotalSize(Long totalSize) {
+        this.totalSize = totalSize;
+    }
+    
+    public Integer getChunkSize() {
+        return chunkSize;
+    }
+    
+    public void setChunkSize(Integer chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+    
+    public Set<Long> getTagIds() {
+        return tagIds;
+    }
+    
+    public void setTagIds(Set<Long> tagIds) {
+        this.tagIds = tagIds;
+    }
+}
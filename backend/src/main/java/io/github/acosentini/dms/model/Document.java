@@ -1,5 +1,7 @@
 package io.github.acosentini.dms.model;
 
+import org.hibernate.annotations.BatchSize;
+
 import javax.persistence.*;
 import java.time.ZonedDateTime;
 import java.time.ZoneOffset;
@@ -25,17 +27,27 @@ public class Document {
     @Column
     private Long size;
 
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
     @Column(name = "content_type")
     private String contentType;
 
     @Column(name = "upload_date")
     private ZonedDateTime uploadDate;
 
+    // Maintained by database triggers (see DocumentSearchSchema); mapped read-only for search criteria
+    @Column(name = "search_vector", columnDefinition = "tsvector", insertable = false, updatable = false)
+    private String searchVector;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id", nullable = false)
     private User owner;
 
+    // Tags of all documents on a page are loaded together when the first is touched,
+    // instead of one query per document; a page needs one extra query up to this size
     @ManyToMany(fetch = FetchType.LAZY)
+    @BatchSize(size = 100)
     @JoinTable(
         name = "document_tags",
         joinColumns = @JoinColumn(name = "document_id"),
@@ -89,6 +101,14 @@ public class Document {
         this.encryptedPath = encryptedPath;
     }
 
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
     public String getContentType() {
         return contentType;
     }
@@ -4,14 +4,18 @@ import javax.persistence.*;
 import java.util.Date;
 
 @Entity
-@Table(name = "refresh_tokens")
+@Table(name = "refresh_tokens", indexes = {
+    // Serves the expiry sweep
+    @Index(name = "idx_refresh_tokens_expiry_date", columnList = "expiryDate")
+})
 public class RefreshToken {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @Column(nullable = false, unique = true)
-    private String token;
+    // Hex SHA-256 of the token; the token itself is only ever known to the client
+    @Column(name = "token", nullable = false, unique = true, length = 64)
+    private String tokenHash;
 
     @OneToOne
     @JoinColumn(name = "user_id", referencedColumnName = "id")
@@ -22,9 +26,9 @@ public class RefreshToken {
 
     public RefreshToken() {}
 
-    public RefreshToken(User user, String token, Date expiryDate) {
+    public RefreshToken(User user, String tokenHash, Date expiryDate) {
         this.user = user;
-        this.token = token;
+        this.tokenHash = tokenHash;
         this.expiryDate = expiryDate;
     }
 
@@ -37,12 +41,12 @@ public class RefreshToken {
         this.id = id;
     }
 
-    public String getToken() {
-        return token;
+    public String getTokenHash() {
+        return tokenHash;
     }
 
-    public void setToken(String token) {
-        this.token = token;
+    public void setTokenHash(String tokenHash) {
+        this.tokenHash = tokenHash;
     }
 
     public User getUser() {
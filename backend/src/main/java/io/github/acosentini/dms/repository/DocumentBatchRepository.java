@@ -0,0 +1,18 @@
+package io.github.acosentini.dms.repository;
+
+import java.util.Map;
+
+/**
+ * Batch updates of {@link DocumentRepository} whose statement depends on the
+ * size of the batch
+ */
+public interface DocumentBatchRepository {
+
+    /**
+     * Rename documents with a single UPDATE joined to a VALUES list of the new names
+     *
+     * @param names New names by document id
+     * @return The number of renamed documents
+     */
+    int updateNames(Map<Long, String> names);
+}
@@ -0,0 +1,37 @@
+package io.github.acosentini.dms.repository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+import java.util.Map;
+
+public class DocumentBatchRepositoryImpl implements DocumentBatchRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public int updateNames(Map<Long, String> names) {
+        if (names.isEmpty()) {
+            return 0;
+        }
+
+        // The casts type the VALUES columns, which PostgreSQL cannot infer from parameters
+        StringBuilder values = new StringBuilder();
+        int position = 1;
+        for (int i = 0; i < names.size(); i++) {
+            values.append(i == 0 ? "" : ", ")
+                .append("(CAST(?").append(position++).append(" AS bigint), ")
+                .append("CAST(?").append(position++).append(" AS varchar))");
+        }
+
+        Query query = entityManager.createNativeQuery(
+            "UPDATE documents d SET name = v.name FROM (VALUES " + values + ") AS v(id, name) WHERE d.id = v.id");
+        position = 1;
+        for (Map.Entry<Long, String> rename : names.entrySet()) {
+            query.setParameter(position++, rename.getKey());
+            query.setParameter(position++, rename.getValue());
+        }
+        return query.executeUpdate();
+    }
+}
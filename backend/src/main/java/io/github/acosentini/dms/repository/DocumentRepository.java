@@ -1,19 +1,21 @@
 package io.github.acosentini.dms.repository;
 
+import io.github.acosentini.dms.dto.DocumentResponse;
 import io.github.acosentini.dms.model.Document;
 import io.github.acosentini.dms.model.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
-import java.time.ZonedDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
-public interface DocumentRepository extends JpaRepository<Document, Long> {
+public interface DocumentRepository extends JpaRepository<Document, Long>, DocumentSearchRepository, DocumentBatchRepository {
     List<Document> findByOwner(User owner);
     
     @Query("SELECT d FROM Document d JOIN d.tags t WHERE t.name = :tagName AND d.owner.id = :userId")
@@ -25,40 +27,139 @@ public interface DocumentRepository extends JpaRepository<Document, Long> {
     @Query("SELECT d FROM Document d WHERE d.contentType LIKE %:contentType% AND d.owner.id = :userId")
     List<Document> findByContentTypeAndUserId(@Param("contentType") String contentType, @Param("userId") Long userId);
 
-    @Query("SELECT DISTINCT d FROM Document d JOIN d.tags t WHERE d.owner.id = :userId AND t.id IN :tagIds")
-    Page<Document> findByOwnerIdAndTagsIdIn(
+    /**
+     * Listing queries select only the columns of a {@link DocumentResponse}, so pages
+     * never load the content column or fill the persistence context. Tag ids are
+     * added afterwards with {@link #findTagLinks}.
+     */
+    String SUMMARY = "SELECT new io.github.acosentini.dms.dto.DocumentResponse(d.id, d.name, d.contentType, d.uploadDate) " +
+                     "FROM Document d ";
+    
+    @Query(value = SUMMARY + "WHERE d.owner.id = :userId",
+           countQuery = "SELECT COUNT(d) FROM Document d WHERE d.owner.id = :userId")
+    Page<DocumentResponse> findByOwnerId(@Param("userId") Long userId, Pageable pageable);
+    
+    @Query(value = SUMMARY + "JOIN d.tags t WHERE t.id = :tagId AND d.owner.id = :userId",
+           countQuery = "SELECT COUNT(d) FROM Document d JOIN d.tags t WHERE t.id = :tagId AND d.owner.id = :userId")
+    Page<DocumentResponse> findByTagIdAndOwnerId(
+        @Param("tagId") Long tagId,
         @Param("userId") Long userId,
-        @Param("tagIds") List<Long> tagIds,
         Pageable pageable
     );
     
-    Page<Document> findByOwnerId(Long userId, Pageable pageable);
-    
-    Page<Document> findByTagsId(Long tagId, Pageable pageable);
-    
     Page<Document> findByNameContaining(String name, Pageable pageable);
 
-    @Query("SELECT DISTINCT d FROM Document d " +
-           "LEFT JOIN d.tags t " +
-           "WHERE d.owner.id = :userId " +
-           "AND (" +
-           "   LOWER(d.name) LIKE LOWER(CONCAT('%', :searchTerm, '%')) " +
-           "   OR LOWER(d.contentType) LIKE LOWER(CONCAT('%', :searchTerm, '%')) " +
-           "   OR EXISTS (SELECT 1 FROM d.tags tag WHERE LOWER(tag.name) LIKE LOWER(CONCAT('%', :searchTerm, '%')))" +
-           ")")
-    Page<Document> searchDocuments(
-        @Param("searchTerm") String searchTerm,
+    /**
+     * A document id found by a native search query
+     */
+    interface SearchHit {
+        Long getId();
+    }
+    
+    /**
+     * Ids of a user's documents matching a tsquery, best match first. Served by the
+     * GIN index on search_vector, see {@link DocumentSearchSchema}.
+     */
+    @Query(value = "SELECT d.id AS id FROM documents d, to_tsquery('simple', :query) q " +
+                   "WHERE d.user_id = :userId AND d.search_vector @@ q " +
+                   "ORDER BY ts_rank_cd(d.search_vector, q) DESC, d.id DESC",
+           countQuery = "SELECT COUNT(*) FROM documents d " +
+                        "WHERE d.user_id = :userId AND d.search_vector @@ to_tsquery('simple', :query)",
+           nativeQuery = true)
+    Page<SearchHit> findIdsByFullText(
+        @Param("query") String query,
         @Param("userId") Long userId,
         Pageable pageable
     );
-
-    @Query("SELECT d FROM Document d " +
-           "WHERE d.owner.id = :userId " +
-           "AND d.uploadDate BETWEEN :startDate AND :endDate")
-    Page<Document> findByDateRange(
+    
+    String CONTAINING_IDS =
+        "SELECT id FROM documents WHERE user_id = :userId AND lower(name) LIKE :pattern " +
+        "UNION SELECT id FROM documents WHERE user_id = :userId AND lower(content_type) LIKE :pattern " +
+        "UNION SELECT dt.document_id FROM document_tags dt JOIN tags t ON t.id = dt.tag_id " +
+        "WHERE t.owner_id = :userId AND lower(t.name) LIKE :pattern";
+    
+    /**
+     * Ids of a user's documents whose name, content type or a tag name contains a
+     * LIKE pattern, newest first. Each branch of the union can use its trigram index
+     * on lower(...), see {@link DocumentSearchSchema}.
+     */
+    @Query(value = "SELECT d.id AS id FROM documents d WHERE d.id IN (" + CONTAINING_IDS + ") " +
+                   "ORDER BY d.upload_date DESC, d.id DESC",
+           countQuery = "SELECT COUNT(*) FROM (" + CONTAINING_IDS + ") m",
+           nativeQuery = true)
+    Page<SearchHit> findIdsContaining(
+        @Param("pattern") String pattern,
         @Param("userId") Long userId,
-        @Param("startDate") ZonedDateTime startDate,
-        @Param("endDate") ZonedDateTime endDate,
         Pageable pageable
     );
-} 
\ No newline at end of file
+    
+    String SIMILAR_IDS =
+        "SELECT id, similarity(lower(name), :term) AS score FROM documents " +
+        "WHERE user_id = :userId AND lower(name) % :term " +
+        "UNION ALL SELECT dt.document_id, similarity(lower(t.name), :term) FROM document_tags dt JOIN tags t ON t.id = dt.tag_id " +
+        "WHERE t.owner_id = :userId AND lower(t.name) % :term";
+    
+    /**
+     * "Did you mean": ids of a user's documents whose name or a tag name is similar
+     * to the term by pg_trgm's % operator, most similar first
+     */
+    @Query(value = "SELECT m.id AS id FROM (" + SIMILAR_IDS + ") m " +
+                   "GROUP BY m.id ORDER BY max(m.score) DESC, m.id DESC",
+           countQuery = "SELECT COUNT(DISTINCT m.id) FROM (" + SIMILAR_IDS + ") m",
+           nativeQuery = true)
+    Page<SearchHit> findIdsBySimilarity(
+        @Param("term") String term,
+        @Param("userId") Long userId,
+        Pageable pageable
+    );
+    
+    @Query(SUMMARY + "WHERE d.id IN :ids")
+    List<DocumentResponse> findSummariesByIds(@Param("ids") Collection<Long> ids);
+    
+    /**
+     * A document id with one of its tag ids
+     */
+    interface TagLink {
+        Long getDocumentId();
+        Long getTagId();
+    }
+    
+    @Query("SELECT d.id AS documentId, t.id AS tagId FROM Document d JOIN d.tags t WHERE d.id IN :ids")
+    List<TagLink> findTagLinks(@Param("ids") Collection<Long> ids);
+    
+    /**
+     * Ids among the given ones that belong to the user, for checking a batch at once
+     */
+    @Query("SELECT d.id FROM Document d WHERE d.id IN :ids AND d.owner.id = :userId")
+    List<Long> findOwnedIds(@Param("ids") Collection<Long> ids, @Param("userId") Long userId);
+    
+    @Query("SELECT d.encryptedPath FROM Document d WHERE d.id IN :ids AND d.encryptedPath IS NOT NULL")
+    List<String> findEncryptedPaths(@Param("ids") Collection<Long> ids);
+    
+    @Modifying
+    @Query(value = "DELETE FROM document_tags WHERE document_id IN :ids", nativeQuery = true)
+    int deleteTagLinks(@Param("ids") Collection<Long> ids);
+    
+    @Modifying
+    @Query("DELETE FROM Document d WHERE d.id IN :ids")
+    int deleteByIds(@Param("ids") Collection<Long> ids);
+    
+    /**
+     * Tag every given document with every given tag, skipping links that already exist
+     */
+    @Modifying
+    @Query(value = "INSERT INTO document_tags (document_id, tag_id) " +
+                   "SELECT d.id, t.id FROM documents d CROSS JOIN tags t " +
+                   "WHERE d.id IN :documentIds AND t.id IN :tagIds " +
+                   "AND NOT EXISTS (SELECT 1 FROM document_tags dt WHERE dt.document_id = d.id AND dt.tag_id = t.id)",
+           nativeQuery = true)
+    int addTagLinks(@Param("documentIds") Collection<Long> documentIds, @Param("tagIds") Collection<Long> tagIds);
+    
+    @Modifying
+    @Query(value = "DELETE FROM document_tags WHERE document_id IN :documentIds AND tag_id IN :tagIds", nativeQuery = true)
+    int removeTagLinks(@Param("documentIds") Collection<Long> documentIds, @Param("tagIds") Collection<Long> tagIds);
+    
+    @Modifying
+    @Query("UPDATE Document d SET d.contentType = :contentType WHERE d.id IN :ids")
+    int updateContentType(@Param("ids") Collection<Long> ids, @Param("contentType") String contentType);
+}
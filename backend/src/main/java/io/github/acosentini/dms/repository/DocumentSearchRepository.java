@@ -0,0 +1,36 @@
+package io.github.acosentini.dms.repository;
+
+import io.github.acosentini.dms.dto.DocumentResponse;
+import io.github.acosentini.dms.model.Document;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Listing queries composed from {@link DocumentSpecifications}. Like the listing
+ * queries of {@link DocumentRepository} they select only the columns of a
+ * {@link DocumentResponse}; tag ids are added afterwards.
+ */
+public interface DocumentSearchRepository {
+
+    Page<DocumentResponse> findSummaries(Specification<Document> specification, Pageable pageable);
+
+    /**
+     * The first documents matching a specification in the given order, without a
+     * count query
+     */
+    List<DocumentResponse> findSummaries(Specification<Document> specification, Sort sort, int limit);
+
+    long countMatching(Specification<Document> specification);
+
+    /**
+     * All documents matching a specification, read through a forward-only cursor
+     * that fetches the given number of rows at a time. Must be consumed and closed
+     * within a transaction.
+     */
+    Stream<DocumentResponse> streamSummaries(Specification<Document> specification, Sort sort, int fetchSize);
+}
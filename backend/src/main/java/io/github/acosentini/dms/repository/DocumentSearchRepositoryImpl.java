@@ -0,0 +1,88 @@
+package io.github.acosentini.dms.repository;
+
+import io.github.acosentini.dms.dto.DocumentResponse;
+import io.github.acosentini.dms.model.Document;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.data.support.PageableExecutionUtils;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class DocumentSearchRepositoryImpl implements DocumentSearchRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public Page<DocumentResponse> findSummaries(Specification<Document> specification, Pageable pageable) {
+        TypedQuery<DocumentResponse> query = summaryQuery(specification, pageable.getSort());
+        if (pageable.isUnpaged()) {
+            return new PageImpl<>(query.getResultList());
+        }
+
+        query.setFirstResult((int) pageable.getOffset());
+        query.setMaxResults(pageable.getPageSize());
+        return PageableExecutionUtils.getPage(query.getResultList(), pageable, () -> countMatching(specification));
+    }
+
+    @Override
+    public List<DocumentResponse> findSummaries(Specification<Document> specification, Sort sort, int limit) {
+        return summaryQuery(specification, sort)
+            .setMaxResults(limit)
+            .getResultList();
+    }
+
+    @Override
+    public Stream<DocumentResponse> streamSummaries(Specification<Document> specification, Sort sort, int fetchSize) {
+        // Hibernate streams through a FORWARD_ONLY ScrollableResults; the PostgreSQL
+        // driver only uses a server-side cursor when a fetch size is set
+        return summaryQuery(specification, sort)
+            .setHint(QueryHints.HINT_FETCH_SIZE, fetchSize)
+            .setHint(QueryHints.HINT_READONLY, true)
+            .getResultStream();
+    }
+
+    private TypedQuery<DocumentResponse> summaryQuery(Specification<Document> specification, Sort sort) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<DocumentResponse> query = cb.createQuery(DocumentResponse.class);
+        Root<Document> root = query.from(Document.class);
+
+        query.select(cb.construct(DocumentResponse.class,
+            root.get("id"), root.get("name"), root.get("contentType"), root.get("uploadDate")));
+        Predicate predicate = specification.toPredicate(root, query, cb);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        if (sort.isSorted()) {
+            query.orderBy(QueryUtils.toOrders(sort, root, cb));
+        }
+        return entityManager.createQuery(query);
+    }
+
+    @Override
+    public long countMatching(Specification<Document> specification) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> query = cb.createQuery(Long.class);
+        Root<Document> root = query.from(Document.class);
+
+        query.select(cb.count(root));
+        Predicate predicate = specification.toPredicate(root, query, cb);
+        if (predicate != null) {
+            query.where(predicate);
+        }
+        return entityManager.createQuery(query).getSingleResult();
+    }
+}
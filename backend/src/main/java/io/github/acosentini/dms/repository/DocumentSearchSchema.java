@@ -0,0 +1,265 @@
+package io.github.acosentini.dms.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Database objects behind document search that Hibernate's schema update cannot
+ * create: the {@code documents.search_vector} column with its GIN index, and the
+ * triggers that keep it in sync with the document's name, content type and tag
+ * names, and the pg_trgm extension where the database allows it. All statements
+ * are idempotent and run at every startup, once Hibernate has updated the tables
+ * and before the web server accepts requests.
+ * 
+ * Documents stored before the column existed are filled in batches in the
+ * background afterwards, and only match full-text searches once filled. The
+ * listing indexes and the trigram indexes for substring and similarity search are
+ * built after that; until they exist those queries work unindexed.
+ */
+@Component
+public class DocumentSearchSchema implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentSearchSchema.class);
+
+    // Words of a name are indexed both as written and split at punctuation,
+    // so "invoice_2023.pdf" matches "invoice" and "2023"
+    private static final String[] FULL_TEXT_STATEMENTS = {
+        "ALTER TABLE documents ADD COLUMN IF NOT EXISTS search_vector tsvector",
+
+        "CREATE OR REPLACE FUNCTION dms_search_words(value text) RETURNS text " +
+        "LANGUAGE sql IMMUTABLE AS $$ " +
+        "  SELECT coalesce(value, '') || ' ' || regexp_replace(coalesce(value, ''), '[^[:alnum:]]+', ' ', 'g') " +
+        "$$",
+
+        "CREATE OR REPLACE FUNCTION dms_document_search_vector(doc_id bigint, doc_name text, doc_content_type text) " +
+        "RETURNS tsvector LANGUAGE sql STABLE AS $$ " +
+        "  SELECT setweight(to_tsvector('simple', dms_search_words(doc_name)), 'A') " +
+        "      || setweight(to_tsvector('simple', coalesce((SELECT string_agg(dms_search_words(t.name), ' ') " +
+        "                                                   FROM document_tags dt JOIN tags t ON t.id = dt.tag_id " +
+        "                                                   WHERE dt.document_id = doc_id), '')), 'B') " +
+        "      || setweight(to_tsvector('simple', dms_search_words(doc_content_type)), 'C') " +
+        "$$",
+
+        // Inlined by the planner, so criteria queries calling it can still use the GIN index
+        "CREATE OR REPLACE FUNCTION dms_search_match(vector tsvector, query text) RETURNS boolean " +
+        "LANGUAGE sql IMMUTABLE AS $$ SELECT vector @@ to_tsquery('simple', query) $$",
+
+        "CREATE OR REPLACE FUNCTION dms_documents_search_trigger() RETURNS trigger " +
+        "LANGUAGE plpgsql AS $$ " +
+        "BEGIN " +
+        "  NEW.search_vector := dms_document_search_vector(NEW.id, NEW.name, NEW.content_type); " +
+        "  RETURN NEW; " +
+        "END $$",
+
+        "CREATE OR REPLACE FUNCTION dms_document_tags_search_trigger() RETURNS trigger " +
+        "LANGUAGE plpgsql AS $$ " +
+        "DECLARE changed_id bigint; " +
+        "BEGIN " +
+        "  IF TG_OP = 'DELETE' THEN changed_id := OLD.document_id; ELSE changed_id := NEW.document_id; END IF; " +
+        "  UPDATE documents d SET search_vector = dms_document_search_vector(d.id, d.name, d.content_type) " +
+        "  WHERE d.id = changed_id; " +
+        "  RETURN NULL; " +
+        "END $$",
+
+        "CREATE OR REPLACE FUNCTION dms_tags_search_trigger() RETURNS trigger " +
+        "LANGUAGE plpgsql AS $$ " +
+        "BEGIN " +
+        "  UPDATE documents d SET search_vector = dms_document_search_vector(d.id, d.name, d.content_type) " +
+        "  WHERE d.id IN (SELECT dt.document_id FROM document_tags dt WHERE dt.tag_id = NEW.id); " +
+        "  RETURN NULL; " +
+        "END $$"
+    };
+
+    // Each trigger is dropped and recreated in one transaction, so writes by other
+    // instances during a rolling deploy never run without it
+    private static final String[][] SEARCH_TRIGGERS = {
+        {"DROP TRIGGER IF EXISTS documents_search_update ON documents",
+         "CREATE TRIGGER documents_search_update BEFORE INSERT OR UPDATE OF name, content_type ON documents " +
+         "FOR EACH ROW EXECUTE PROCEDURE dms_documents_search_trigger()"},
+
+        {"DROP TRIGGER IF EXISTS document_tags_search_update ON document_tags",
+         "CREATE TRIGGER document_tags_search_update AFTER INSERT OR DELETE ON document_tags " +
+         "FOR EACH ROW EXECUTE PROCEDURE dms_document_tags_search_trigger()"},
+
+        {"DROP TRIGGER IF EXISTS tags_search_update ON tags",
+         "CREATE TRIGGER tags_search_update AFTER UPDATE OF name ON tags " +
+         "FOR EACH ROW EXECUTE PROCEDURE dms_tags_search_trigger()"}
+    };
+
+    private static final String SEARCH_INDEX =
+        "CREATE INDEX IF NOT EXISTS idx_documents_search_vector ON documents USING GIN (search_vector)";
+
+    private static final String BACKFILL =
+        "UPDATE documents d SET search_vector = dms_document_search_vector(d.id, d.name, d.content_type) " +
+        "WHERE d.id IN (SELECT id FROM documents WHERE search_vector IS NULL LIMIT ?)";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${app.search.backfill-batch-size:1000}")
+    private int backfillBatchSize;
+
+    private volatile boolean trigramAvailable;
+
+    // Listing indexes: a user's documents newest first, as walked by keyset pagination,
+    // and documents by tag. Built with CREATE INDEX CONCURRENTLY, like the trigram
+    // indexes below, so that writes to the tables are not blocked.
+    private static final String[][] LISTING_INDEXES = {
+        {"idx_documents_user_upload_date", "documents (user_id, upload_date DESC, id DESC)"},
+        {"idx_document_tags_tag_id", "document_tags (tag_id, document_id)"}
+    };
+
+    // Trigram indexes for substring and similarity search on names
+    private static final String[][] TRIGRAM_INDEXES = {
+        {"idx_documents_name_trgm", "documents USING GIN (lower(name) gin_trgm_ops)"},
+        {"idx_documents_content_type_trgm", "documents USING GIN (lower(content_type) gin_trgm_ops)"},
+        {"idx_tags_name_trgm", "tags USING GIN (lower(name) gin_trgm_ops)"}
+    };
+
+    /**
+     * Create the search column, functions and triggers. Runs after all singletons,
+     * including the entity manager factory, are created and before the web server
+     * starts, so no request sees a partial schema and every document written from
+     * now on is indexed by the triggers.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        for (String statement : FULL_TEXT_STATEMENTS) {
+            jdbcTemplate.execute(statement);
+        }
+
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        for (String[] trigger : SEARCH_TRIGGERS) {
+            transaction.executeWithoutResult(status -> {
+                for (String statement : trigger) {
+                    jdbcTemplate.execute(statement);
+                }
+            });
+        }
+
+        jdbcTemplate.execute(SEARCH_INDEX);
+        createTrigramSupport();
+    }
+
+    /**
+     * Enable pg_trgm and create dms_similar, the function form of its % operator
+     * for criteria queries, inlined like dms_search_match. Without the extension
+     * substring search is not indexed and similarity search is unavailable.
+     */
+    private void createTrigramSupport() {
+        try {
+            jdbcTemplate.execute("CREATE EXTENSION IF NOT EXISTS pg_trgm");
+        } catch (DataAccessException ex) {
+            logger.warn("Could not enable pg_trgm", ex);
+        }
+
+        trigramAvailable = Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+            "SELECT EXISTS (SELECT 1 FROM pg_extension WHERE extname = 'pg_trgm')", Boolean.class));
+        if (!trigramAvailable) {
+            logger.warn("pg_trgm is not installed; substring search is not indexed and similarity search is unavailable");
+            return;
+        }
+
+        jdbcTemplate.execute("CREATE OR REPLACE FUNCTION dms_similar(value text, term text) RETURNS boolean " +
+            "LANGUAGE sql STABLE AS $$ SELECT value % term $$");
+    }
+
+    /**
+     * @return Whether pg_trgm is installed, which similarity search requires
+     */
+    public boolean isTrigramAvailable() {
+        return trigramAvailable;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startIndexing() {
+        // The backfill and concurrent index builds can take minutes on large tables
+        Thread thread = new Thread(() -> {
+            backfillSearchVectors();
+            createIndexes();
+        }, "search-index-build");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Fill the search vector of documents stored before the column existed. Each
+     * batch is committed on its own, so no long-running transaction holds row locks.
+     *
+     * @return The number of documents indexed
+     */
+    long backfillSearchVectors() {
+        long indexed = 0;
+        try {
+            int updated;
+            do {
+                updated = jdbcTemplate.update(BACKFILL, backfillBatchSize);
+                indexed += updated;
+            } while (updated == backfillBatchSize);
+        } catch (DataAccessException ex) {
+            logger.error("Full-text indexing of existing documents stopped after {} documents", indexed, ex);
+            return indexed;
+        }
+
+        if (indexed > 0) {
+            logger.info("Indexed {} documents for full-text search", indexed);
+        }
+        return indexed;
+    }
+
+    /**
+     * Create the listing indexes, then the trigram indexes if pg_trgm is installed.
+     * Each statement is auto-committed on its own, as CONCURRENTLY requires.
+     */
+    void createIndexes() {
+        for (String[] index : LISTING_INDEXES) {
+            createIndexConcurrently(index[0], index[1]);
+        }
+
+        if (!trigramAvailable) {
+            return;
+        }
+        for (String[] index : TRIGRAM_INDEXES) {
+            createIndexConcurrently(index[0], index[1]);
+        }
+    }
+
+    /**
+     * An interrupted concurrent build leaves an invalid index behind, which is
+     * dropped and rebuilt. The name is resolved through the search path, like the
+     * CREATE INDEX below, so an index of the same name in another schema is ignored.
+     */
+    private void createIndexConcurrently(String name, String definition) {
+        try {
+            Boolean valid = jdbcTemplate.query(
+                "SELECT i.indisvalid FROM pg_index i WHERE i.indexrelid = to_regclass(?)",
+                rs -> rs.next() ? rs.getBoolean(1) : null,
+                name);
+            if (Boolean.TRUE.equals(valid)) {
+                return;
+            }
+            if (Boolean.FALSE.equals(valid)) {
+                jdbcTemplate.execute("DROP INDEX CONCURRENTLY IF EXISTS " + name);
+            }
+
+            long start = System.nanoTime();
+            jdbcTemplate.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + name + " ON " + definition);
+            logger.info("Built index {} in {} ms", name, (System.nanoTime() - start) / 1_000_000);
+        } catch (DataAccessException ex) {
+            logger.warn("Could not build index {}", name, ex);
+        }
+    }
+}
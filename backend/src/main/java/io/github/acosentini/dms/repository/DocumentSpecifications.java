@@ -0,0 +1,151 @@
+package io.github.acosentini.dms.repository;
+
+import io.github.acosentini.dms.model.Document;
+import io.github.acosentini.dms.model.Tag;
+import org.springframework.data.jpa.domain.Specification;
+
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
+import java.time.ZonedDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Building blocks for document searches. Combined with {@link Specification#and}
+ * they become a single SQL query, so every criterion of a search is applied by the
+ * database. Term matching calls the SQL functions created by {@link DocumentSearchSchema}.
+ */
+public final class DocumentSpecifications {
+
+    private DocumentSpecifications() {
+    }
+
+    public static Specification<Document> ownedBy(Long userId) {
+        return (root, query, cb) -> cb.equal(root.get("owner").get("id"), userId);
+    }
+
+    /**
+     * Documents carrying at least one of the tags
+     */
+    public static Specification<Document> hasAnyTag(Collection<Long> tagIds) {
+        return (root, query, cb) -> {
+            Subquery<Long> tagged = query.subquery(Long.class);
+            Root<Document> document = tagged.correlate(root);
+            Join<Document, Tag> tag = document.join("tags");
+            tagged.select(tag.get("id")).where(tag.get("id").in(tagIds));
+            return cb.exists(tagged);
+        };
+    }
+
+    /**
+     * Documents carrying every one of the tags
+     */
+    public static Specification<Document> hasAllTags(Collection<Long> tagIds) {
+        long required = tagIds.stream().distinct().count();
+        return (root, query, cb) -> {
+            Subquery<Long> matched = query.subquery(Long.class);
+            Root<Document> document = matched.correlate(root);
+            Join<Document, Tag> tag = document.join("tags");
+            matched.select(cb.countDistinct(tag.get("id"))).where(tag.get("id").in(tagIds));
+            return cb.equal(matched, required);
+        };
+    }
+
+    public static Specification<Document> uploadedFrom(ZonedDateTime startDate) {
+        return (root, query, cb) -> cb.greaterThanOrEqualTo(root.get("uploadDate"), startDate);
+    }
+
+    public static Specification<Document> uploadedUntil(ZonedDateTime endDate) {
+        return (root, query, cb) -> cb.lessThanOrEqualTo(root.get("uploadDate"), endDate);
+    }
+
+    /**
+     * Documents of one of the content types; "image/*" matches every image type
+     */
+    public static Specification<Document> contentTypeIn(Collection<String> contentTypes) {
+        return (root, query, cb) -> {
+            Expression<String> contentType = cb.lower(root.get("contentType"));
+            List<Predicate> matches = contentTypes.stream()
+                .map(type -> type.toLowerCase(Locale.ROOT))
+                .map(type -> type.endsWith("/*")
+                    ? cb.like(contentType, escapeLike(type.substring(0, type.length() - 1)) + "%", '\\')
+                    : cb.equal(contentType, type))
+                .collect(Collectors.toList());
+            return cb.or(matches.toArray(new Predicate[0]));
+        };
+    }
+
+    public static Specification<Document> sizeAtLeast(long minSize) {
+        return (root, query, cb) -> cb.greaterThanOrEqualTo(root.get("size"), minSize);
+    }
+
+    public static Specification<Document> sizeAtMost(long maxSize) {
+        return (root, query, cb) -> cb.lessThanOrEqualTo(root.get("size"), maxSize);
+    }
+
+    /**
+     * Full-text match of a tsquery against the search vector (GIN-indexed)
+     */
+    public static Specification<Document> matchesFullText(String tsquery) {
+        return (root, query, cb) -> cb.isTrue(
+            cb.function("dms_search_match", Boolean.class, root.get("searchVector"), cb.literal(tsquery)));
+    }
+
+    /**
+     * Case-insensitive substring match of name, content type or a tag name
+     */
+    public static Specification<Document> contains(String term) {
+        String pattern = "%" + escapeLike(term.toLowerCase(Locale.ROOT)) + "%";
+        return (root, query, cb) -> {
+            Subquery<Long> tagged = query.subquery(Long.class);
+            Root<Document> document = tagged.correlate(root);
+            Join<Document, Tag> tag = document.join("tags");
+            tagged.select(tag.get("id")).where(cb.like(cb.lower(tag.get("name")), pattern, '\\'));
+
+            return cb.or(
+                cb.like(cb.lower(root.get("name")), pattern, '\\'),
+                cb.like(cb.lower(root.get("contentType")), pattern, '\\'),
+                cb.exists(tagged));
+        };
+    }
+
+    /**
+     * Trigram similarity of the name or a tag name to the term (pg_trgm's % operator)
+     */
+    public static Specification<Document> similarTo(String term) {
+        String lowerTerm = term.toLowerCase(Locale.ROOT);
+        return (root, query, cb) -> {
+            Subquery<Long> tagged = query.subquery(Long.class);
+            Root<Document> document = tagged.correlate(root);
+            Join<Document, Tag> tag = document.join("tags");
+            tagged.select(tag.get("id")).where(cb.isTrue(
+                cb.function("dms_similar", Boolean.class, cb.lower(tag.get("name")), cb.literal(lowerTerm))));
+
+            return cb.or(
+                cb.isTrue(cb.function("dms_similar", Boolean.class, cb.lower(root.get("name")), cb.literal(lowerTerm))),
+                cb.exists(tagged));
+        };
+    }
+
+    /**
+     * Documents after a position in newest-first order, i.e. uploaded earlier, or at
+     * the same time with a smaller id. Used for keyset pagination.
+     */
+    public static Specification<Document> before(ZonedDateTime uploadDate, Long id) {
+        return (root, query, cb) -> cb.or(
+            cb.lessThan(root.get("uploadDate"), uploadDate),
+            cb.and(cb.equal(root.get("uploadDate"), uploadDate), cb.lessThan(root.get("id"), id)));
+    }
+
+    /**
+     * Escape the LIKE wildcards in user input, so "inv_2023" matches literally
+     */
+    public static String escapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
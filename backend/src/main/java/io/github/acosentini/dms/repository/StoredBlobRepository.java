@@ -0,0 +1,35 @@
+package io.github.acosentini.dms.repository;
+
+import io.github.acosentini.dms.model.StoredBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface StoredBlobRepository extends JpaRepository<StoredBlob, String> {
+
+    /**
+     * Serialize work on one blob until the end of the current transaction
+     */
+    @Query(value = "SELECT 1 FROM (SELECT pg_advisory_xact_lock(:key)) AS blob_lock", nativeQuery = true)
+    Integer lockBlob(@Param("key") long key);
+
+    /**
+     * Insert the blob with one reference, or add a reference if it already exists
+     */
+    @Modifying
+    @Query(value = "INSERT INTO stored_blobs (hash, size, ref_count, created_at) " +
+                   "VALUES (:hash, :size, 1, now()) " +
+                   "ON CONFLICT (hash) DO UPDATE SET ref_count = stored_blobs.ref_count + 1", nativeQuery = true)
+    int addReference(@Param("hash") String hash, @Param("size") long size);
+
+    @Modifying
+    @Query(value = "UPDATE stored_blobs SET ref_count = ref_count - 1 WHERE hash = :hash", nativeQuery = true)
+    int removeReference(@Param("hash") String hash);
+
+    @Modifying
+    @Query(value = "DELETE FROM stored_blobs WHERE hash = :hash AND ref_count <= 0", nativeQuery = true)
+    int deleteIfUnreferenced(@Param("hash") String hash);
+}
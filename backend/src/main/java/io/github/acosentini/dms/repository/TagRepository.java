@@ -6,6 +6,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -31,6 +32,11 @@ public interface TagRepository extends JpaRepository<Tag, Long> {
      */
     List<Tag> findByNameContainingAndOwnerId(String keyword, Long ownerId);
     
+    /**
+     * Count the tags among the given ids that belong to a user
+     */
+    long countByIdInAndOwnerId(Collection<Long> ids, Long ownerId);
+    
     // For backward compatibility during migration - can be removed later
     Optional<Tag> findByName(String name);
 } 
\ No newline at end of file
@@ -0,0 +1,52 @@
+package io.github.acosentini.dms.repository;
+
+import io.github.acosentini.dms.model.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+
+    /**
+     * Record a received chunk; a re-sent chunk is a no-op
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO upload_session_chunks (session_id, chunk_index) VALUES (:sessionId, :chunkIndex) " +
+                   "ON CONFLICT DO NOTHING", nativeQuery = true)
+    int markChunkReceived(@Param("sessionId") String sessionId, @Param("chunkIndex") int chunkIndex);
+
+    @Query(value = "SELECT chunk_index FROM upload_session_chunks WHERE session_id = :sessionId ORDER BY chunk_index",
+           nativeQuery = true)
+    List<Integer> findReceivedChunks(@Param("sessionId") String sessionId);
+
+    @Query(value = "SELECT COUNT(*) FROM upload_session_chunks WHERE session_id = :sessionId", nativeQuery = true)
+    long countReceivedChunks(@Param("sessionId") String sessionId);
+
+    /**
+     * Claim a session for completion; only one of several concurrent calls succeeds
+     *
+     * @return 1 if this call claimed the session, 0 if another one already had
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE UploadSession s SET s.completing = true WHERE s.id = :sessionId AND s.completing = false")
+    int claimForCompletion(@Param("sessionId") String sessionId);
+
+    /**
+     * Give up a claim after a failed completion, so that the client can retry
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE UploadSession s SET s.completing = false WHERE s.id = :sessionId")
+    int releaseCompletion(@Param("sessionId") String sessionId);
+
+    List<UploadSession> findByExpiresAtBefore(ZonedDateTime cutoff);
+}
@@ -0,0 +1,21 @@
+package io.github.acosentini.dms.security;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Injects the authenticated user into a controller method parameter.
+ *
+ * Supported parameter types are {@link UserPrincipal} and {@code Long} (the user
+ * id), both taken from the access token without a query, and
+ * {@link io.github.acosentini.dms.model.User}, loaded through the user cache of
+ * {@link io.github.acosentini.dms.service.UserService}.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CurrentUser {
+}
@@ -1,5 +1,7 @@
 package io.github.acosentini.dms.security;
 
+import io.github.acosentini.dms.config.AccessLogFilter;
+import io.jsonwebtoken.Claims;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -25,49 +27,39 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws ServletException, IOException {
         
-        logger.info("Processing request: {} {}", request.getMethod(), request.getRequestURI());
-        
         // Skip token validation for public endpoints
         String path = request.getRequestURI().substring(request.getContextPath().length());
         if (path.startsWith("/hello") || path.startsWith("/auth/")) {
-            logger.info("Skipping authentication for public path: {}", path);
             filterChain.doFilter(request, response);
             return;
         }
         
         String token = jwtTokenProvider.resolveToken(request);
-        logger.info("Token found: {}", token != null ? "yes" : "no");
         
         if (token == null) {
-            logger.warn("No token found in request");
             response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
             return;
         }
         
         try {
-            boolean isValid = jwtTokenProvider.validateToken(token);
-            logger.info("Token validation result: {}", isValid);
+            // Verified once here and reused for the principal
+            Claims claims = jwtTokenProvider.getValidClaims(token);
             
-            if (!isValid) {
-                logger.warn("Invalid token");
+            if (claims == null) {
                 response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 return;
             }
             
-            Authentication auth = jwtTokenProvider.getAuthentication(token);
-            logger.info("Authentication created: {} for user: {}", 
-                auth != null, 
-                auth != null ? auth.getName() : "none"
-            );
+            Authentication auth = jwtTokenProvider.getAuthentication(claims);
             
             if (auth == null) {
-                logger.warn("Could not create authentication from token");
+                logger.debug("Token carries no user id");
                 response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
                 return;
             }
             
             SecurityContextHolder.getContext().setAuthentication(auth);
-            logger.info("Authentication set in SecurityContext");
+            request.setAttribute(AccessLogFilter.USER_ID_ATTRIBUTE, ((UserPrincipal) auth.getPrincipal()).getId());
             
         } catch (Exception e) {
             logger.error("Could not set user authentication", e);
@@ -77,4 +69,4 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         
         filterChain.doFilter(request, response);
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,34 @@
+package io.github.acosentini.dms.security;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Component
+@ConfigurationProperties(prefix = "app.jwt-keys")
+public class JwtKeyProperties {
+    
+    // Key id (the token's kid header) of the key new tokens are signed with
+    private String activeKeyId;
+    
+    // All keys tokens are accepted from, by key id; when empty app.jwtSecret is the only key
+    private Map<String, String> secrets = new LinkedHashMap<>();
+
+    public String getActiveKeyId() {
+        return activeKeyId;
+    }
+
+    public void setActiveKeyId(String activeKeyId) {
+        this.activeKeyId = activeKeyId;
+    }
+
+    public Map<String, String> getSecrets() {
+        return secrets;
+    }
+
+    public void setSecrets(Map<String, String> secrets) {
+        this.secrets = secrets;
+    }
+}
@@ -1,45 +1,94 @@
 package io.github.acosentini.dms.security;
 
-import io.github.acosentini.dms.model.RefreshToken;
 import io.github.acosentini.dms.model.User;
-import io.github.acosentini.dms.repository.RefreshTokenRepository;
-import io.jsonwebtoken.*;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.UnsupportedJwtException;
+import io.jsonwebtoken.security.SecurityException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.Date;
-import java.util.UUID;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
 
 @Component
 public class JwtTokenProvider {
 
     private static final Logger logger = LoggerFactory.getLogger(JwtTokenProvider.class);
 
-    @Value("${app.jwtSecret}")
-    private String jwtSecret;
-
     @Value("${app.jwtExpirationInMs}")
     private int jwtExpirationInMs;
 
-    @Value("${app.refreshTokenExpirationInMs}")
-    private int refreshTokenExpirationInMs;
+    @Value("${app.jwtClaimsCacheSize:10000}")
+    private long jwtClaimsCacheSize;
 
     @Autowired
-    private RefreshTokenRepository refreshTokenRepository;
+    private JwtTokenService tokenService;
 
-    private UserDetailsService userDetailsService;
-    
-    public JwtTokenProvider(UserDetailsService userDetailsService) {
-        this.userDetailsService = userDetailsService;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // SHA-256 of a token -> its verified claims, kept until the token expires
+    private Cache<String, Claims> verifiedClaims;
+
+    private Timer verificationTimer;
+
+    private Timer signingTimer;
+
+    @PostConstruct
+    public void init() {
+        verifiedClaims = Caffeine.newBuilder()
+                .maximumSize(jwtClaimsCacheSize)
+                .expireAfter(new Expiry<String, Claims>() {
+                    @Override
+                    public long expireAfterCreate(String key, Claims claims, long currentTime) {
+                        long remainingMillis = claims.getExpiration().getTime() - System.currentTimeMillis();
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, remainingMillis));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Claims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Claims claims, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, verifiedClaims, "jwtClaims");
+
+        verificationTimer = Timer.builder("dms.jwt.verification")
+                .description("Time spent parsing and verifying access tokens on cache misses")
+                .register(meterRegistry);
+
+        signingTimer = Timer.builder("dms.jwt.signing")
+                .description("Time spent signing access tokens")
+                .register(meterRegistry);
     }
 
     /**
@@ -55,23 +104,7 @@ public class JwtTokenProvider {
         Date now = new Date();
         Date expiryDate = new Date(now.getTime() + jwtExpirationInMs);
         
-        return Jwts.builder()
-                .setClaims(claims)
-                .setIssuedAt(now)
-                .setExpiration(expiryDate)
-                .signWith(SignatureAlgorithm.HS512, jwtSecret)
-                .compact();
-    }
-
-    public String generateRefreshToken(User user) {
-        Date now = new Date();
-        Date expiryDate = new Date(now.getTime() + refreshTokenExpirationInMs);
-        
-        String token = UUID.randomUUID().toString();
-        RefreshToken refreshToken = new RefreshToken(user, token, expiryDate);
-        refreshTokenRepository.save(refreshToken);
-        
-        return token;
+        return signingTimer.record(() -> tokenService.sign(claims, now, expiryDate));
     }
 
     /**
@@ -81,11 +114,40 @@ public class JwtTokenProvider {
      * @return The username
      */
     public String getUsername(String token) {
-        return Jwts.parser()
-                .setSigningKey(jwtSecret)
-                .parseClaimsJws(token)
-                .getBody()
-                .getSubject();
+        return getVerifiedClaims(token).getSubject();
+    }
+
+    /**
+     * Get the claims of a token, verifying its signature and expiry only the first
+     * time the token is seen
+     * 
+     * @param token The JWT token
+     * @return The verified claims
+     * @throws JwtException if the token is invalid or expired
+     */
+    public Claims getVerifiedClaims(String token) {
+        String key = hashToken(token);
+        Claims claims = verifiedClaims.getIfPresent(key);
+        if (claims != null) {
+            // The entry may outlive exp by the cache's clean-up granularity
+            if (claims.getExpiration().getTime() > System.currentTimeMillis()) {
+                return claims;
+            }
+            verifiedClaims.invalidate(key);
+        }
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            claims = tokenService.verify(token);
+        } finally {
+            sample.stop(verificationTimer);
+        }
+
+        // Tokens without an expiry are verified every time rather than cached forever
+        if (claims.getExpiration() != null) {
+            verifiedClaims.put(key, claims);
+        }
+        return claims;
     }
 
     /**
@@ -95,37 +157,32 @@ public class JwtTokenProvider {
      * @return true if token is valid, false otherwise
      */
     public boolean validateToken(String token) {
+        return getValidClaims(token) != null;
+    }
+
+    /**
+     * Validate JWT token and return its claims
+     * 
+     * @param token The JWT token
+     * @return The verified claims, or null if the token is invalid
+     */
+    public Claims getValidClaims(String token) {
         try {
-            Jwts.parser().setSigningKey(jwtSecret).parseClaimsJws(token);
-            return true;
-        } catch (SignatureException ex) {
-            logger.error("Invalid JWT signature");
-        } catch (MalformedJwtException ex) {
-            logger.error("Invalid JWT token");
+            return getVerifiedClaims(token);
         } catch (ExpiredJwtException ex) {
-            logger.error("Expired JWT token");
+            // Routine for clients that refresh lazily; the 401 shows up in the access log
+            logger.debug("Expired JWT token");
+        } catch (SecurityException ex) {
+            // Bad signature or a key id that is no longer accepted
+            logger.debug("Invalid JWT signature");
+        } catch (MalformedJwtException ex) {
+            logger.debug("Invalid JWT token");
         } catch (UnsupportedJwtException ex) {
-            logger.error("Unsupported JWT token");
+            logger.debug("Unsupported JWT token");
         } catch (IllegalArgumentException ex) {
-            logger.error("JWT claims string is empty");
+            logger.debug("JWT claims string is empty");
         }
-        return false;
-    }
-
-    public boolean validateRefreshToken(String token) {
-        return refreshTokenRepository.findByToken(token)
-                .map(refreshToken -> {
-                    if (refreshToken.getExpiryDate().before(new Date())) {
-                        refreshTokenRepository.delete(refreshToken);
-                        return false;
-                    }
-                    return true;
-                })
-                .orElse(false);
-    }
-
-    public void invalidateRefreshToken(String token) {
-        refreshTokenRepository.deleteByToken(token);
+        return null;
     }
 
     /**
@@ -145,18 +202,39 @@ public class JwtTokenProvider {
     /**
      * Get authentication from JWT token
      * 
+     * The principal is built from the token's claims alone, so authenticating a
+     * request needs no database lookup. A deleted user's tokens stay usable until
+     * they expire, which the short access token lifetime bounds.
+     * 
      * @param token The JWT token
-     * @return The authentication object
+     * @return The authentication object, or null if the token carries no user id
      */
     public Authentication getAuthentication(String token) {
-        String username = getUsername(token);
-        UserDetails userDetails = userDetailsService.loadUserByUsername(username);
-        return new UsernamePasswordAuthenticationToken(userDetails, "", userDetails.getAuthorities());
+        return getAuthentication(getVerifiedClaims(token));
+    }
+
+    /**
+     * Get authentication from the verified claims of a JWT token
+     * 
+     * @param claims The verified claims
+     * @return The authentication object, or null if the claims carry no user id
+     */
+    public Authentication getAuthentication(Claims claims) {
+        Object userId = claims.get("userId");
+        if (!(userId instanceof Number)) {
+            return null;
+        }
+        
+        UserPrincipal principal = new UserPrincipal(((Number) userId).longValue(), claims.getSubject());
+        return new UsernamePasswordAuthenticationToken(principal, null, Collections.emptyList());
     }
 
-    public User getUserFromRefreshToken(String token) {
-        return refreshTokenRepository.findByToken(token)
-                .map(RefreshToken::getUser)
-                .orElseThrow(() -> new RuntimeException("Refresh token not found"));
+    private String hashToken(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,147 @@
+package io.github.acosentini.dms.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+import io.jsonwebtoken.io.Serializer;
+import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Signs and verifies access tokens. The HMAC keys and the parser are built once
+ * at startup and shared by all requests; both are thread-safe.
+ * 
+ * Several keys can be active at once, identified by the token's kid header, so a
+ * secret can be rotated without logging everyone out: add the new key, make it
+ * the active one, and drop the old key once its tokens have expired.
+ */
+@Service
+public class JwtTokenService {
+
+    private static final Logger logger = LoggerFactory.getLogger(JwtTokenService.class);
+
+    // Key id used when only app.jwtSecret is configured
+    static final String DEFAULT_KEY_ID = "default";
+
+    private final Map<String, SecretKey> verificationKeys;
+    private final String activeKeyId;
+    private final SecretKey signingKey;
+    private final JwtParser parser;
+    private final Serializer<Map<String, ?>> serializer;
+
+    public JwtTokenService(JwtKeyProperties properties, @Value("${app.jwtSecret}") String jwtSecret) {
+        Map<String, SecretKey> keys = new LinkedHashMap<>();
+        if (properties.getSecrets().isEmpty()) {
+            keys.put(DEFAULT_KEY_ID, deriveKey(jwtSecret));
+        } else {
+            properties.getSecrets().forEach((keyId, secret) -> keys.put(keyId, deriveKey(secret)));
+        }
+        this.verificationKeys = Map.copyOf(keys);
+
+        this.activeKeyId = StringUtils.hasText(properties.getActiveKeyId())
+            ? properties.getActiveKeyId()
+            : keys.keySet().iterator().next();
+        this.signingKey = verificationKeys.get(activeKeyId);
+        if (signingKey == null) {
+            throw new IllegalStateException("No JWT secret configured for active key id: " + activeKeyId);
+        }
+
+        this.parser = Jwts.parserBuilder()
+            .setSigningKeyResolver(new SigningKeyResolverAdapter() {
+                // jjwt 0.11 declares the header raw; JwsHeader<?> would not override it
+                @Override
+                @SuppressWarnings("rawtypes")
+                public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                    return resolveKey(header.getKeyId());
+                }
+            })
+            .build();
+        this.serializer = loadSerializer();
+
+        logger.info("JWT signing with key id '{}', accepting key ids {}", activeKeyId, verificationKeys.keySet());
+    }
+
+    /**
+     * Sign claims with the active key
+     * 
+     * @param claims The token claims
+     * @param issuedAt The issue time
+     * @param expiration The expiry time
+     * @return The compact JWS
+     */
+    public String sign(Claims claims, Date issuedAt, Date expiration) {
+        return Jwts.builder()
+            .serializeToJsonWith(serializer)
+            .setHeaderParam(JwsHeader.KEY_ID, activeKeyId)
+            .setClaims(claims)
+            .setIssuedAt(issuedAt)
+            .setExpiration(expiration)
+            .signWith(signingKey, SignatureAlgorithm.HS512)
+            .compact();
+    }
+
+    /**
+     * Verify a token's signature and expiry
+     * 
+     * @param token The compact JWS
+     * @return The verified claims
+     * @throws JwtException if the token is invalid, expired or signed with an unknown key
+     */
+    public Claims verify(String token) {
+        return parser.parseClaimsJws(token).getBody();
+    }
+
+    private SecretKey resolveKey(String keyId) {
+        // Tokens without a kid can only have come from a single-key setup
+        SecretKey key = verificationKeys.get(keyId != null ? keyId : activeKeyId);
+        if (key == null) {
+            throw new SignatureException("Unknown JWT key id: " + keyId);
+        }
+        return key;
+    }
+
+    /**
+     * Without a serializer, the builder looks one up through the ServiceLoader on every
+     * call, which costs more than signing itself.
+     */
+    @SuppressWarnings("unchecked")
+    private static Serializer<Map<String, ?>> loadSerializer() {
+        return ServiceLoader.load(Serializer.class).findFirst()
+            .orElseThrow(() -> new IllegalStateException("No JWT JSON serializer on the classpath"));
+    }
+
+    /**
+     * HS512 needs a 512-bit key; hashing the configured secret gives one of the
+     * right size whatever the secret's length.
+     */
+    private static SecretKey deriveKey(String secret) {
+        if (!StringUtils.hasText(secret)) {
+            throw new IllegalStateException("JWT secret must not be empty");
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-512");
+            return Keys.hmacShaKeyFor(digest.digest(secret.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-512 is not available", ex);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.acosentini.dms.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Password hashing: the BCrypt encoder and the executor that logins verify
+ * passwords on, so that a burst of logins cannot occupy the servlet threads
+ */
+@Configuration
+public class PasswordHashingConfig {
+
+    private static final Logger logger = LoggerFactory.getLogger(PasswordHashingConfig.class);
+
+    // Never go below the BCrypt default, however fast the machine is
+    private static final int MIN_STRENGTH = 10;
+    private static final int MAX_STRENGTH = 16;
+
+    @Bean
+    public PasswordEncoder passwordEncoder(PasswordHashingProperties properties, MeterRegistry meterRegistry) {
+        // Calibration is opt-in: on fast machines it raises the cost, and with it the CPU per login
+        int strength = properties.getTargetHashTime() != null
+            ? calibrateStrength(properties.getTargetHashTime())
+            : properties.getStrength();
+        return new MeteredPasswordEncoder(new BCryptPasswordEncoder(strength), meterRegistry);
+    }
+
+    /**
+     * Bounded pool for password verification. When all threads are busy and the
+     * queue is full, submissions are rejected so the caller can answer 503 at once.
+     * Queue depth and pool usage are exposed as executor.* metrics tagged
+     * name=passwordHashing.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService passwordHashingExecutor(PasswordHashingProperties properties, MeterRegistry meterRegistry) {
+        int threads = properties.getThreads() > 0 ? properties.getThreads() : Runtime.getRuntime().availableProcessors();
+        
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(properties.getQueueCapacity()),
+            new CustomizableThreadFactory("password-hashing-"),
+            new ThreadPoolExecutor.AbortPolicy());
+        
+        return ExecutorServiceMetrics.monitor(meterRegistry, executor, "passwordHashing", Collections.emptyList());
+    }
+
+    /**
+     * Pick the BCrypt cost whose hash time on this machine is closest to the target.
+     * Each step of the cost doubles the work, so one measurement is enough.
+     */
+    private int calibrateStrength(Duration targetHashTime) {
+        BCryptPasswordEncoder probe = new BCryptPasswordEncoder(MIN_STRENGTH);
+        probe.encode("calibration"); // warm up
+        
+        long fastest = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            probe.encode("calibration");
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+        
+        double doublings = Math.log((double) targetHashTime.toNanos() / fastest) / Math.log(2);
+        int strength = Math.max(MIN_STRENGTH, Math.min(MAX_STRENGTH, MIN_STRENGTH + (int) Math.round(doublings)));
+        
+        logger.info("BCrypt strength {} selected ({} ms at strength {}, target {} ms)",
+            strength, fastest / 1_000_000, MIN_STRENGTH, targetHashTime.toMillis());
+        return strength;
+    }
+}
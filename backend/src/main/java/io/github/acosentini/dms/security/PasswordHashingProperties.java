@@ -0,0 +1,55 @@
+package io.github.acosentini.dms.security;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Component
+@ConfigurationProperties(prefix = "app.password-hashing")
+public class PasswordHashingProperties {
+    
+    // BCrypt cost, as before it was configurable
+    private int strength = 10;
+    
+    // When set, the cost is calibrated at startup to reach this hash time instead
+    private Duration targetHashTime;
+    
+    // Threads verifying passwords; 0 means one per CPU
+    private int threads = 0;
+    
+    // Logins waiting for a thread before new ones are rejected with 503
+    private int queueCapacity = 100;
+
+    public int getStrength() {
+        return strength;
+    }
+
+    public void setStrength(int strength) {
+        this.strength = strength;
+    }
+
+    public Duration getTargetHashTime() {
+        return targetHashTime;
+    }
+
+    public void setTargetHashTime(Duration targetHashTime) {
+        this.targetHashTime = targetHashTime;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+}
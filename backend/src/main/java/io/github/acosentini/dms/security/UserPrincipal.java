@@ -0,0 +1,36 @@
+package io.github.acosentini.dms.security;
+
+import org.springframework.security.core.AuthenticatedPrincipal;
+
+/**
+ * The authenticated user of a request, built from the claims of a verified access
+ * token without touching the database
+ */
+public class UserPrincipal implements AuthenticatedPrincipal {
+
+    private final Long id;
+    private final String username;
+
+    public UserPrincipal(Long id, String username) {
+        this.id = id;
+        this.username = username;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public String getName() {
+        return username;
+    }
+
+    @Override
+    public String toString() {
+        return username;
+    }
+}
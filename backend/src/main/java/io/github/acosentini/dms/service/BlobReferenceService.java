@@ -0,0 +1,86 @@
+package io.github.acosentini.dms.service;
+
+import io.github.acosentini.dms.repository.StoredBlobRepository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.function.Consumer;
+
+/**
+ * Reference counting for content-addressed blobs.
+ *
+ * Adding a reference, dropping the last one and deleting an orphaned file all take
+ * a transaction-scoped advisory lock on the blob's hash, so an upload of the same
+ * content can never race with the deletion of its file.
+ */
+@Service
+public class BlobReferenceService {
+
+    @Autowired
+    private StoredBlobRepository storedBlobRepository;
+
+    private final TransactionTemplate newTransaction;
+
+    @Autowired
+    public BlobReferenceService(PlatformTransactionManager transactionManager) {
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Add a reference to a blob, creating it if needed
+     *
+     * @param hash The blob's content hash
+     * @param size The blob's size in bytes
+     * @param materialize Puts the blob's file in place; runs while the blob is locked
+     */
+    @Transactional
+    public void addReference(String hash, long size, Runnable materialize) {
+        storedBlobRepository.lockBlob(lockKey(hash));
+        storedBlobRepository.addReference(hash, size);
+        materialize.run();
+    }
+
+    /**
+     * Drop a reference to a blob. When the last reference goes away the blob's file
+     * is deleted once the surrounding transaction has committed.
+     *
+     * @param hash The blob's content hash
+     * @param deleteFile Deletes the blob's file
+     */
+    @Transactional
+    public void removeReference(String hash, Consumer<String> deleteFile) {
+        storedBlobRepository.lockBlob(lockKey(hash));
+        storedBlobRepository.removeReference(hash);
+
+        if (storedBlobRepository.deleteIfUnreferenced(hash) > 0) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    deleteIfOrphaned(hash, deleteFile);
+                }
+            });
+        }
+    }
+
+    private void deleteIfOrphaned(String hash, Consumer<String> deleteFile) {
+        newTransaction.executeWithoutResult(status -> {
+            storedBlobRepository.lockBlob(lockKey(hash));
+            // Somebody may have uploaded the same content again in the meantime
+            if (!storedBlobRepository.existsById(hash)) {
+                deleteFile.accept(hash);
+            }
+        });
+    }
+
+    private long lockKey(String hash) {
+        return Long.parseUnsignedLong(hash.substring(0, 16), 16);
+    }
+}
@@ -0,0 +1,65 @@
+package io.github.acosentini.dms.service;
+
+import io.github.acosentini.dms.dto.DocumentResponse;
+import io.github.acosentini.dms.exception.BadRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+
+/**
+ * Position in a newest-first document listing: the upload date and id of the last
+ * document of a page. Clients get it as an opaque token and must not build one.
+ */
+public class DocumentCursor {
+    
+    private static final String VERSION = "1";
+    
+    private final ZonedDateTime uploadDate;
+    private final Long id;
+
+    public DocumentCursor(ZonedDateTime uploadDate, Long id) {
+        this.uploadDate = uploadDate;
+        this.id = id;
+    }
+
+    public static DocumentCursor after(DocumentResponse document) {
+        return new DocumentCursor(document.getUploadDate(), document.getId());
+    }
+
+    public ZonedDateTime getUploadDate() {
+        return uploadDate;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String encode() {
+        Instant instant = uploadDate.toInstant();
+        String value = VERSION + ":" + instant.getEpochSecond() + ":" + instant.getNano() + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param token A token from {@link #encode()}
+     * @return The cursor
+     * @throws BadRequestException if the token was not issued by this server
+     */
+    public static DocumentCursor decode(String token) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = value.split(":");
+            if (parts.length != 4 || !VERSION.equals(parts[0])) {
+                throw new BadRequestException("Invalid cursor");
+            }
+            Instant instant = Instant.ofEpochSecond(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+            return new DocumentCursor(instant.atZone(ZoneOffset.UTC), Long.parseLong(parts[3]));
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new BadRequestException("Invalid cursor");
+        }
+    }
+}
@@ -4,20 +4,46 @@ import io.github.acosentini.dms.model.Document;
 import io.github.acosentini.dms.model.Tag;
 import io.github.acosentini.dms.model.User;
 import io.github.acosentini.dms.repository.DocumentRepository;
+import io.github.acosentini.dms.repository.DocumentSearchSchema;
+import io.github.acosentini.dms.repository.DocumentSpecifications;
+import io.github.acosentini.dms.repository.TagRepository;
+import io.github.acosentini.dms.exception.BadRequestException;
 import io.github.acosentini.dms.exception.ResourceNotFoundException;
+import io.github.acosentini.dms.dto.CursorPage;
 import io.github.acosentini.dms.dto.DocumentDTO;
+import io.github.acosentini.dms.dto.DocumentResponse;
+import io.github.acosentini.dms.dto.DocumentSearchMode;
+import io.github.acosentini.dms.dto.DocumentSearchRequest;
+import io.github.acosentini.dms.dto.TagMatch;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.ZonedDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class DocumentService {
@@ -34,6 +60,24 @@ public class DocumentService {
     @Autowired
     private FileStorageService fileStorageService;
     
+    @Autowired
+    private TagRepository tagRepository;
+    
+    @Autowired
+    private DocumentSearchSchema documentSearchSchema;
+    
+    // Order of listings that are not sorted otherwise, and of keyset pagination
+    private static final Sort NEWEST_FIRST = Sort.by(Sort.Order.desc("uploadDate"), Sort.Order.desc("id"));
+    
+    @Value("${spring.data.web.pageable.max-page-size:200}")
+    private int maxPageSize;
+    
+    @Value("${app.exportFetchSize:500}")
+    private int exportFetchSize;
+    
+    @Value("${app.documentBatchMaxSize:1000}")
+    private int documentBatchMaxSize;
+    
     /**
      * Create a new document
      * 
@@ -50,6 +94,7 @@ public class DocumentService {
         document.setEncryptedPath(documentDTO.getFilePath());
         document.setSize(documentDTO.getFileSize());
         document.setContentType(documentDTO.getFileType());
+        document.setContentHash(documentDTO.getContentHash());
         document.setUploadDate(ZonedDateTime.now(ZoneOffset.UTC));
         document.setOwner(user);
         
@@ -84,6 +129,24 @@ public class DocumentService {
             .orElseThrow(() -> new ResourceNotFoundException("Document not found with id: " + id));
     }
     
+    /**
+     * Get the strong entity tag for a document's content
+     * 
+     * Stored files are never modified in place, so the content hash together with
+     * the upload date identifies a representation. Documents uploaded before content
+     * hashes were recorded fall back to their id and size.
+     * 
+     * @param document The document
+     * @return The quoted entity tag
+     */
+    public String getEntityTag(Document document) {
+        String contentPart = document.getContentHash() != null
+            ? document.getContentHash()
+            : document.getId() + "-" + document.getSize();
+        long uploadMillis = document.getUploadDate() != null ? document.getUploadDate().toInstant().toEpochMilli() : 0;
+        return "\"" + contentPart + "-" + Long.toHexString(uploadMillis) + "\"";
+    }
+    
     /**
      * Get all documents
      * 
@@ -101,49 +164,306 @@ public class DocumentService {
      * @param pageable Pagination information
      * @return Page of documents
      */
-    public Page<Document> getDocumentsByUserId(Long userId, Pageable pageable) {
-        return documentRepository.findByOwnerId(userId, pageable);
+    @Transactional(readOnly = true)
+    public Page<DocumentResponse> getDocumentsByUserId(Long userId, Pageable pageable) {
+        return withTagIds(documentRepository.findByOwnerId(userId, pageable));
     }
     
     /**
-     * Get documents by tag ID
+     * Get a user's documents by tag ID
      * 
      * @param tagId The tag ID
+     * @param userId The user ID
      * @param pageable Pagination information
      * @return Page of documents
      */
-    public Page<Document> getDocumentsByTagId(Long tagId, Pageable pageable) {
-        return documentRepository.findByTagsId(tagId, pageable);
+    @Transactional(readOnly = true)
+    public Page<DocumentResponse> getDocumentsByTagId(Long tagId, Long userId, Pageable pageable) {
+        return withTagIds(documentRepository.findByTagIdAndOwnerId(tagId, userId, pageable));
     }
     
     /**
      * Search documents with multiple criteria
+     * 
+     * All criteria of the request are combined into one query. A search term on its
+     * own is matched through the search indexes and comes in the mode's own order
+     * (relevance, similarity or newest first) rather than the pageable's sort.
+     * 
+     * @param userId The user ID
+     * @param criteria The search criteria; paging fields are ignored
+     * @param pageable Pagination information; newest first unless sorted, and at most
+     *                 spring.data.web.pageable.max-page-size documents
+     * @return Page of documents
      */
-    public Page<Document> searchDocuments(
-            Long userId,
-            String searchTerm,
-            ZonedDateTime startDate,
-            ZonedDateTime endDate,
-            List<Long> tagIds,
-            Pageable pageable) {
-
-        // If we have tagIds, use tag search
-        if (tagIds != null && !tagIds.isEmpty()) {
-            return documentRepository.findByOwnerIdAndTagsIdIn(userId, tagIds, pageable);
+    @Transactional(readOnly = true)
+    public Page<DocumentResponse> searchDocuments(Long userId, DocumentSearchRequest criteria, Pageable pageable) {
+        pageable = limitPageSize(pageable);
+        
+        String searchTerm = trimToNull(criteria.getSearchTerm());
+        if (searchTerm != null && !hasFilters(criteria)) {
+            return searchByTerm(userId, searchTerm, criteria.getMode(), pageable);
+        }
+        
+        Sort sort = pageable.getSort().isSorted() ? pageable.getSort() : NEWEST_FIRST;
+        Pageable sorted = pageable.isPaged()
+            ? PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), sort)
+            : pageable;
+        return withTagIds(documentRepository.findSummaries(toSpecification(userId, criteria), sorted));
+    }
+    
+    /**
+     * Search documents with multiple criteria, newest first, using keyset pagination
+     * 
+     * @param userId The user ID
+     * @param criteria The search criteria; paging fields are ignored
+     * @param cursor The cursor returned with the previous page, or null for the first page
+     * @param size The page size
+     * @return The page and the cursor of the next one
+     */
+    @Transactional(readOnly = true)
+    public CursorPage<DocumentResponse> searchDocuments(Long userId, DocumentSearchRequest criteria, String cursor, int size) {
+        return findByCursor(toSpecification(userId, criteria), cursor, size, criteria.isIncludeCount());
+    }
+    
+    /**
+     * Get documents by user ID, newest first, using keyset pagination
+     * 
+     * @param userId The user ID
+     * @param cursor The cursor returned with the previous page, or null for the first page
+     * @param size The page size
+     * @param includeCount Whether to count all of the user's documents as well
+     * @return The page and the cursor of the next one
+     */
+    @Transactional(readOnly = true)
+    public CursorPage<DocumentResponse> getDocumentsByUserId(Long userId, String cursor, int size, boolean includeCount) {
+        return findByCursor(DocumentSpecifications.ownedBy(userId), cursor, size, includeCount);
+    }
+    
+    /**
+     * Get a user's documents by tag ID, newest first, using keyset pagination
+     * 
+     * @param tagId The tag ID
+     * @param userId The user ID
+     * @param cursor The cursor returned with the previous page, or null for the first page
+     * @param size The page size
+     * @param includeCount Whether to count all matching documents as well
+     * @return The page and the cursor of the next one
+     */
+    @Transactional(readOnly = true)
+    public CursorPage<DocumentResponse> getDocumentsByTagId(Long tagId, Long userId, String cursor, int size, boolean includeCount) {
+        Specification<Document> specification = Specification.where(DocumentSpecifications.ownedBy(userId))
+            .and(DocumentSpecifications.hasAnyTag(List.of(tagId)));
+        return findByCursor(specification, cursor, size, includeCount);
+    }
+    
+    /**
+     * One newest-first page after the cursor's position. Served by the
+     * (user_id, upload_date, id) index, so deep pages cost the same as the first.
+     */
+    private CursorPage<DocumentResponse> findByCursor(Specification<Document> specification, String cursor, int size,
+                                                      boolean includeCount) {
+        if (size < 1) {
+            throw new BadRequestException("Page size must be positive");
         }
+        size = Math.min(size, maxPageSize);
+        Long total = includeCount ? documentRepository.countMatching(specification) : null;
         
-        // If we have a date range, use that search
-        if (startDate != null && endDate != null) {
-            return documentRepository.findByDateRange(userId, startDate, endDate, pageable);
+        if (cursor != null && !cursor.isEmpty()) {
+            DocumentCursor position = DocumentCursor.decode(cursor);
+            specification = specification.and(DocumentSpecifications.before(position.getUploadDate(), position.getId()));
         }
         
-        // If we have a search term, use the general search
-        if (searchTerm != null && !searchTerm.trim().isEmpty()) {
-            return documentRepository.searchDocuments(searchTerm.trim(), userId, pageable);
+        // One extra row tells whether there is a next page
+        List<DocumentResponse> documents = documentRepository.findSummaries(specification, NEWEST_FIRST, size + 1);
+        String nextCursor = null;
+        if (documents.size() > size) {
+            documents = documents.subList(0, size);
+            nextCursor = DocumentCursor.after(documents.get(size - 1)).encode();
         }
+        return new CursorPage<>(withTagIds(documents), nextCursor, total);
+    }
+    
+    /**
+     * Export every document matching the criteria, newest first, in batches. Rows
+     * are read through a forward-only database cursor, so memory use does not
+     * depend on the number of documents.
+     * 
+     * @param userId The user ID
+     * @param criteria The search criteria; paging fields are ignored
+     * @param batchConsumer Receives the documents, with their tag ids, one batch at a time
+     * @return The number of exported documents
+     */
+    @Transactional(readOnly = true)
+    public long exportDocuments(Long userId, DocumentSearchRequest criteria, Consumer<List<DocumentResponse>> batchConsumer) {
+        long exported = 0;
+        List<DocumentResponse> batch = new ArrayList<>(exportFetchSize);
         
-        // Default to all documents for the user
-        return documentRepository.findByOwnerId(userId, pageable);
+        try (Stream<DocumentResponse> documents = documentRepository.streamSummaries(
+                toSpecification(userId, criteria), NEWEST_FIRST, exportFetchSize)) {
+            Iterator<DocumentResponse> iterator = documents.iterator();
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() == exportFetchSize || !iterator.hasNext()) {
+                    batchConsumer.accept(withTagIds(batch));
+                    exported += batch.size();
+                    batch = new ArrayList<>(exportFetchSize);
+                }
+            }
+        }
+        return exported;
+    }
+    
+    private Specification<Document> toSpecification(Long userId, DocumentSearchRequest criteria) {
+        Specification<Document> specification = Specification.where(DocumentSpecifications.ownedBy(userId));
+        
+        if (criteria.getTagIds() != null && !criteria.getTagIds().isEmpty()) {
+            specification = specification.and(criteria.getTagMatch() == TagMatch.ALL
+                ? DocumentSpecifications.hasAllTags(criteria.getTagIds())
+                : DocumentSpecifications.hasAnyTag(criteria.getTagIds()));
+        }
+        if (criteria.getStartDate() != null) {
+            specification = specification.and(DocumentSpecifications.uploadedFrom(criteria.getStartDate()));
+        }
+        if (criteria.getEndDate() != null) {
+            specification = specification.and(DocumentSpecifications.uploadedUntil(criteria.getEndDate()));
+        }
+        if (criteria.getContentTypes() != null && !criteria.getContentTypes().isEmpty()) {
+            specification = specification.and(DocumentSpecifications.contentTypeIn(criteria.getContentTypes()));
+        }
+        if (criteria.getMinSize() != null) {
+            specification = specification.and(DocumentSpecifications.sizeAtLeast(criteria.getMinSize()));
+        }
+        if (criteria.getMaxSize() != null) {
+            specification = specification.and(DocumentSpecifications.sizeAtMost(criteria.getMaxSize()));
+        }
+        
+        String searchTerm = trimToNull(criteria.getSearchTerm());
+        if (searchTerm != null) {
+            if (criteria.getMode() == DocumentSearchMode.FULL_TEXT) {
+                String query = toPrefixQuery(searchTerm);
+                // A term without any words matches nothing
+                specification = specification.and(query != null
+                    ? DocumentSpecifications.matchesFullText(query)
+                    : (root, q, cb) -> cb.disjunction());
+            } else if (criteria.getMode() == DocumentSearchMode.SIMILAR) {
+                checkSimilaritySearchAvailable();
+                specification = specification.and(DocumentSpecifications.similarTo(searchTerm));
+            } else {
+                specification = specification.and(DocumentSpecifications.contains(searchTerm));
+            }
+        }
+        return specification;
+    }
+    
+    /**
+     * Never return more than the maximum page size, also when asked for everything
+     */
+    private Pageable limitPageSize(Pageable pageable) {
+        if (pageable.isUnpaged()) {
+            return PageRequest.of(0, maxPageSize, pageable.getSort());
+        }
+        if (pageable.getPageSize() > maxPageSize) {
+            return PageRequest.of(pageable.getPageNumber(), maxPageSize, pageable.getSort());
+        }
+        return pageable;
+    }
+    
+    private void checkSimilaritySearchAvailable() {
+        if (!documentSearchSchema.isTrigramAvailable()) {
+            throw new BadRequestException("Similarity search is not available; the pg_trgm extension is not installed");
+        }
+    }
+    
+    private boolean hasFilters(DocumentSearchRequest criteria) {
+        return (criteria.getTagIds() != null && !criteria.getTagIds().isEmpty())
+            || criteria.getStartDate() != null
+            || criteria.getEndDate() != null
+            || (criteria.getContentTypes() != null && !criteria.getContentTypes().isEmpty())
+            || criteria.getMinSize() != null
+            || criteria.getMaxSize() != null;
+    }
+    
+    private static String trimToNull(String text) {
+        return text == null || text.trim().isEmpty() ? null : text.trim();
+    }
+    
+    /**
+     * Search by term in the given mode: a page of matching ids from the search
+     * indexes, then the listed columns of just those documents
+     */
+    private Page<DocumentResponse> searchByTerm(Long userId, String searchTerm, DocumentSearchMode mode, Pageable pageable) {
+        // The native search queries define their own order
+        Pageable unsorted = pageable.isPaged()
+            ? PageRequest.of(pageable.getPageNumber(), pageable.getPageSize())
+            : Pageable.unpaged();
+        String lowerTerm = searchTerm.toLowerCase(Locale.ROOT);
+        
+        Page<DocumentRepository.SearchHit> hits;
+        if (mode == DocumentSearchMode.FULL_TEXT) {
+            String query = toPrefixQuery(searchTerm);
+            if (query == null) {
+                return Page.empty(pageable);
+            }
+            hits = documentRepository.findIdsByFullText(query, userId, unsorted);
+        } else if (mode == DocumentSearchMode.SIMILAR) {
+            checkSimilaritySearchAvailable();
+            hits = documentRepository.findIdsBySimilarity(lowerTerm, userId, unsorted);
+        } else {
+            hits = documentRepository.findIdsContaining("%" + DocumentSpecifications.escapeLike(lowerTerm) + "%", userId, unsorted);
+        }
+        
+        if (hits.isEmpty()) {
+            return new PageImpl<>(List.of(), hits.getPageable(), hits.getTotalElements());
+        }
+        
+        List<Long> ids = hits.getContent().stream()
+            .map(DocumentRepository.SearchHit::getId)
+            .collect(Collectors.toList());
+        Map<Long, DocumentResponse> byId = documentRepository.findSummariesByIds(ids).stream()
+            .collect(Collectors.toMap(DocumentResponse::getId, Function.identity()));
+        
+        // Keep the order of the hits
+        List<DocumentResponse> documents = ids.stream()
+            .map(byId::get)
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+        return withTagIds(new PageImpl<>(documents, hits.getPageable(), hits.getTotalElements()));
+    }
+    
+    /**
+     * Turn free text into a tsquery that requires every word, each as a prefix,
+     * e.g. "inv 2023" becomes "inv:* & 2023:*". Only letters and digits are kept,
+     * so user input can never produce tsquery syntax.
+     * 
+     * @return The tsquery, or null if the text contains no words
+     */
+    static String toPrefixQuery(String text) {
+        String query = Arrays.stream(text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+            .filter(word -> !word.isEmpty())
+            .map(word -> word + ":*")
+            .collect(Collectors.joining(" & "));
+        return query.isEmpty() ? null : query;
+    }
+    
+    /**
+     * Fill in the tag ids of a page of listed documents with a single query
+     */
+    private Page<DocumentResponse> withTagIds(Page<DocumentResponse> page) {
+        withTagIds(page.getContent());
+        return page;
+    }
+    
+    private List<DocumentResponse> withTagIds(List<DocumentResponse> documents) {
+        if (documents.isEmpty()) {
+            return documents;
+        }
+        
+        Map<Long, DocumentResponse> byId = documents.stream()
+            .collect(Collectors.toMap(DocumentResponse::getId, Function.identity()));
+        for (DocumentRepository.TagLink link : documentRepository.findTagLinks(byId.keySet())) {
+            byId.get(link.getDocumentId()).getTagIds().add(link.getTagId());
+        }
+        return documents;
     }
     
     /**
@@ -152,6 +472,7 @@ public class DocumentService {
      * @param id The document ID
      * @param documentDTO The updated document details
      * @return The updated document
+     * @throws BadRequestException If the update names a different file path
      */
     @Transactional
     public Document updateDocument(Long id, DocumentDTO documentDTO) {
@@ -162,9 +483,11 @@ public class DocumentService {
             document.setName(documentDTO.getName());
         }
         
-        // Only update encrypted path if explicitly provided
-        if (documentDTO.getFilePath() != null && !documentDTO.getFilePath().isEmpty()) {
-            document.setEncryptedPath(documentDTO.getFilePath());
+        // Content is shared by reference count and described by its hash and size, so it
+        // can only be replaced through an upload, never by pointing at another stored file
+        if (documentDTO.getFilePath() != null && !documentDTO.getFilePath().isEmpty()
+                && !documentDTO.getFilePath().equals(document.getEncryptedPath())) {
+            throw new BadRequestException("Document content cannot be changed by file path; upload a new document instead");
         }
         
         // Update tags if provided
@@ -201,6 +524,7 @@ public class DocumentService {
         
         // Delete the actual file from storage
         fileStorageService.deleteFile(document.getEncryptedPath());
+        fileStorageService.evictStorageKey(document.getEncryptedPath());
         
         // Delete document from database
         documentRepository.delete(document);
@@ -237,4 +561,127 @@ public class DocumentService {
         document.getTags().remove(tag);
         return documentRepository.save(document);
     }
-} 
\ No newline at end of file
+    
+    /**
+     * Delete several documents of a user in one transaction. Their files are
+     * released together and removed once the transaction has committed.
+     * 
+     * @param documentIds The document IDs
+     * @param userId The ID of the user who must own all documents
+     * @return The number of deleted documents
+     */
+    @Transactional
+    public int deleteDocuments(Collection<Long> documentIds, Long userId) {
+        Set<Long> ids = checkBatchOwnership(documentIds, userId);
+        
+        List<String> encryptedPaths = documentRepository.findEncryptedPaths(ids);
+        documentRepository.deleteTagLinks(ids);
+        int deleted = documentRepository.deleteByIds(ids);
+        
+        fileStorageService.deleteFiles(encryptedPaths);
+        return deleted;
+    }
+    
+    /**
+     * Add tags to several documents of a user in one transaction
+     * 
+     * @param documentIds The document IDs
+     * @param tagIds The tag IDs
+     * @param userId The ID of the user who must own all documents and tags
+     * @return The number of documents in the batch
+     */
+    @Transactional
+    public int addTagsToDocuments(Collection<Long> documentIds, Collection<Long> tagIds, Long userId) {
+        Set<Long> ids = checkBatchOwnership(documentIds, userId);
+        Set<Long> tags = checkTagOwnership(tagIds, userId);
+        
+        documentRepository.addTagLinks(ids, tags);
+        return ids.size();
+    }
+    
+    /**
+     * Remove tags from several documents of a user in one transaction
+     * 
+     * @param documentIds The document IDs
+     * @param tagIds The tag IDs
+     * @param userId The ID of the user who must own all documents
+     * @return The number of documents in the batch
+     */
+    @Transactional
+    public int removeTagsFromDocuments(Collection<Long> documentIds, Collection<Long> tagIds, Long userId) {
+        Set<Long> ids = checkBatchOwnership(documentIds, userId);
+        if (tagIds == null || tagIds.isEmpty()) {
+            throw new BadRequestException("Tag ids cannot be empty");
+        }
+        
+        documentRepository.removeTagLinks(ids, new HashSet<>(tagIds));
+        return ids.size();
+    }
+    
+    /**
+     * Update the metadata of several documents of a user in one transaction
+     * 
+     * @param documentIds The document IDs
+     * @param contentType The content type to set on all documents, or null to keep it
+     * @param names New names by document ID; every ID must be part of the batch
+     * @param userId The ID of the user who must own all documents
+     * @return The number of documents in the batch
+     */
+    @Transactional
+    public int updateDocuments(Collection<Long> documentIds, String contentType, Map<Long, String> names, Long userId) {
+        Set<Long> ids = checkBatchOwnership(documentIds, userId);
+        
+        if (names != null) {
+            for (Map.Entry<Long, String> rename : names.entrySet()) {
+                if (!ids.contains(rename.getKey())) {
+                    throw new BadRequestException("Document " + rename.getKey() + " is renamed but not part of the batch");
+                }
+                if (rename.getValue() == null || rename.getValue().trim().isEmpty()) {
+                    throw new BadRequestException("Name of document " + rename.getKey() + " cannot be blank");
+                }
+            }
+        }
+        
+        if (contentType != null) {
+            documentRepository.updateContentType(ids, contentType);
+        }
+        if (names != null) {
+            documentRepository.updateNames(names);
+        }
+        return ids.size();
+    }
+    
+    /**
+     * Check with one query that a batch is within the size limit and that the user
+     * owns every document in it. Documents of other users are reported as not
+     * found, so a batch cannot be used to probe for their ids.
+     */
+    private Set<Long> checkBatchOwnership(Collection<Long> documentIds, Long userId) {
+        if (documentIds == null || documentIds.isEmpty()) {
+            throw new BadRequestException("Document ids cannot be empty");
+        }
+        Set<Long> ids = new LinkedHashSet<>(documentIds);
+        if (ids.size() > documentBatchMaxSize) {
+            throw new BadRequestException("At most " + documentBatchMaxSize + " documents can be processed at once");
+        }
+        
+        List<Long> owned = documentRepository.findOwnedIds(ids, userId);
+        if (owned.size() != ids.size()) {
+            Set<Long> missing = new LinkedHashSet<>(ids);
+            owned.forEach(missing::remove);
+            throw new ResourceNotFoundException("Documents not found with ids: " + missing);
+        }
+        return ids;
+    }
+    
+    private Set<Long> checkTagOwnership(Collection<Long> tagIds, Long userId) {
+        if (tagIds == null || tagIds.isEmpty()) {
+            throw new BadRequestException("Tag ids cannot be empty");
+        }
+        Set<Long> ids = new HashSet<>(tagIds);
+        if (tagRepository.countByIdInAndOwnerId(ids, userId) != ids.size()) {
+            throw new BadRequestException("Cannot use a tag that doesn't belong to the document owner");
+        }
+        return ids;
+    }
+}
@@ -1,40 +1,111 @@
 package io.github.acosentini.dms.service;
 
 import io.github.acosentini.dms.config.FileStorageProperties;
+import io.github.acosentini.dms.exception.BadRequestException;
 import io.github.acosentini.dms.exception.FileStorageException;
 import io.github.acosentini.dms.exception.FileNotFoundException;
+import io.github.acosentini.dms.exception.FileTooLargeException;
+import io.github.acosentini.dms.storage.StorageBackend;
 import io.github.acosentini.dms.util.EncryptionUtil;
+import io.github.acosentini.dms.util.SizeLimitedInputStream;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.util.StringUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
+/**
+ * Stores document content by its SHA-256 hash. Identical uploads share one object,
+ * reference counted by {@link BlobReferenceService}; files stored before content
+ * addressing keep their {@code <uuid>.<ext>} names. The content itself lives in the
+ * configured {@link StorageBackend}. Uploads are staged in the local upload
+ * directory, already in the form the backend stores (encrypted, if content
+ * encryption is on), and handed to the backend once complete.
+ */
 @Service
 public class FileStorageService {
-
-    private final Path fileStorageLocation;
+    
+    private static final Logger logger = LoggerFactory.getLogger(FileStorageService.class);
+    
+    private static final Pattern BLOB_NAME = Pattern.compile("[0-9a-f]{64}");
+    
+    // Staged files untouched for this long were left behind by a crash
+    private static final Duration STALE_STAGING_AGE = Duration.ofHours(1);
+    
+    private final Path uploadSessionLocation;
+    
+    private final Path tempLocation;
+    
+    private final long maxUploadSize;
     
     @Autowired
     private EncryptionUtil encryptionUtil;
     
     @Autowired
-    public FileStorageService(FileStorageProperties fileStorageProperties) {
-        this.fileStorageLocation = Paths.get(fileStorageProperties.getUploadDir())
+    private BlobReferenceService blobReferenceService;
+    
+    private final StorageBackend storageBackend;
+    
+    // Encrypted path -> storage key, so hot documents skip Base64 decoding and AES decryption
+    private final Cache<String, String> storageKeyCache;
+    
+    @Autowired
+    public FileStorageService(FileStorageProperties fileStorageProperties, StorageBackend storageBackend,
+                              MeterRegistry meterRegistry) {
+        this.storageBackend = storageBackend;
+        this.storageKeyCache = Caffeine.newBuilder()
+                .maximumSize(fileStorageProperties.getStorageKeyCacheSize())
+                .recordStats()
+                .build();
+        // Exposes cache.gets{result=hit|miss}, cache.evictions and cache.size under cache=storageKeys
+        CaffeineCacheMetrics.monitor(meterRegistry, this.storageKeyCache, "storageKeys");
+        Path fileStorageLocation = Paths.get(fileStorageProperties.getUploadDir())
                 .toAbsolutePath().normalize();
+        this.uploadSessionLocation = fileStorageLocation.resolve(".upload-sessions");
+        this.tempLocation = fileStorageLocation.resolve(".tmp");
+        this.maxUploadSize = fileStorageProperties.getMaxUploadSize().toBytes();
         
         try {
-            Files.createDirectories(this.fileStorageLocation);
+            Files.createDirectories(fileStorageLocation);
+            Files.createDirectories(this.uploadSessionLocation);
+            Files.createDirectories(this.tempLocation);
         } catch (Exception ex) {
             throw new FileStorageException("Could not create the directory where the uploaded files will be stored.", ex);
         }
@@ -44,36 +115,176 @@ public class FileStorageService {
      * Store a file in the filesystem
      * 
      * @param file The file to store
-     * @return The encrypted file path
+     * @return The stored file with its encrypted path, size and content hash
      */
-    public String storeFile(MultipartFile file) {
-        // Normalize file name
-        String originalFileName = StringUtils.cleanPath(file.getOriginalFilename());
+    public StoredFile storeFile(MultipartFile file) {
+        try (InputStream in = file.getInputStream()) {
+            return storeFile(in, file.getOriginalFilename());
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not store file " + file.getOriginalFilename() + ". Please try again!", ex);
+        }
+    }
+    
+    /**
+     * Store a file from a stream. Size and content hash are computed while the bytes
+     * go by, so the stream is read exactly once. If a file with the same content is
+     * already stored, the new copy is discarded and the existing one is referenced.
+     * 
+     * @param in The file content
+     * @param originalFileName The client-side file name
+     * @return The stored file with its encrypted path, size and content hash
+     */
+    public StoredFile storeFile(InputStream in, String originalFileName) {
+        // Staged in the upload directory so that the local backend can take it over with a rename
+        Path tempFile = this.tempLocation.resolve(UUID.randomUUID().toString());
         
         try {
-            // Check if the file's name contains invalid characters
-            if (originalFileName.contains("..")) {
-                throw new FileStorageException("Sorry! Filename contains invalid path sequence " + originalFileName);
+            MessageDigest digest = newContentDigest();
+            SizeLimitedInputStream limited = new SizeLimitedInputStream(in, maxUploadSize);
+            // The plaintext is hashed and counted on its way into the staging file
+            try (InputStream staged = storageBackend.stage(new DigestInputStream(limited, digest))) {
+                Files.copy(staged, tempFile);
             }
             
-            // Generate a unique file name to prevent overwriting
-            String fileExtension = "";
-            if (originalFileName.contains(".")) {
-                fileExtension = originalFileName.substring(originalFileName.lastIndexOf("."));
+            return linkBlob(tempFile, HexFormat.of().formatHex(digest.digest()), limited.getBytesRead());
+        } catch (IOException | RuntimeException ex) {
+            deleteQuietly(tempFile);
+            if (ex instanceof RuntimeException) {
+                throw (RuntimeException) ex;
+            }
+            throw new FileStorageException("Could not store file " + originalFileName + ". Please try again!", ex);
+        }
+    }
+    
+    /**
+     * Create the directory that the chunks of an upload session are staged in
+     * 
+     * @param sessionId The upload session ID
+     */
+    public void createUploadSession(String sessionId) {
+        try {
+            Files.createDirectories(resolveUploadSessionDirectory(sessionId));
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not create upload session directory for " + sessionId, ex);
+        }
+    }
+    
+    /**
+     * Stage one chunk of an upload session. Each chunk is a file of its own, written
+     * through the backend's staging like a whole upload; a re-sent chunk replaces
+     * the earlier copy.
+     * 
+     * @param sessionId The upload session ID
+     * @param chunkIndex The zero-based chunk index
+     * @param offset The offset of the chunk within the file
+     * @param length The expected length of the chunk
+     * @param in The chunk content
+     */
+    public void writeUploadChunk(String sessionId, int chunkIndex, long offset, long length, InputStream in) {
+        Path legacyFile = resolveLegacyUploadSessionFile(sessionId);
+        if (Files.exists(legacyFile)) {
+            writeLegacyUploadChunk(legacyFile, offset, length, in);
+            return;
+        }
+        
+        Path chunkFile = resolveUploadChunk(sessionId, chunkIndex);
+        Path tempFile = chunkFile.resolveSibling(chunkFile.getFileName() + "." + UUID.randomUUID());
+        try {
+            SizeLimitedInputStream limited = new SizeLimitedInputStream(in, length);
+            try (InputStream staged = storageBackend.stage(limited)) {
+                Files.copy(staged, tempFile);
+            } catch (FileTooLargeException ex) {
+                throw new BadRequestException("Chunk is longer than expected " + length + " bytes");
+            }
+            if (limited.getBytesRead() < length) {
+                throw new BadRequestException("Chunk is shorter than expected: " + limited.getBytesRead()
+                    + " of " + length + " bytes");
             }
             
-            String uniqueFileName = UUID.randomUUID().toString() + fileExtension;
-            
-            // Copy file to the target location (replacing existing file with the same name)
-            Path targetLocation = this.fileStorageLocation.resolve(uniqueFileName);
-            Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
-            
-            // Encrypt the file path before storing in database
-            String encryptedFilePath = encryptionUtil.encrypt(uniqueFileName);
+            Files.move(tempFile, chunkFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not write chunk for upload session " + sessionId, ex);
+        } finally {
+            deleteQuietly(tempFile);
+        }
+    }
+    
+    /**
+     * Store the chunks of a complete upload session as one file. The staged chunks
+     * are read back in order, hashed and staged again as a whole; they are left in
+     * place.
+     * 
+     * @param sessionId The upload session ID
+     * @param chunkCount The number of chunks
+     * @param originalFileName The client-side file name
+     * @return The stored file with its encrypted path, size and content hash
+     */
+    public StoredFile storeUploadSessionFile(String sessionId, int chunkCount, String originalFileName) {
+        Path legacyFile = resolveLegacyUploadSessionFile(sessionId);
+        
+        try {
+            InputStream content;
+            if (Files.exists(legacyFile)) {
+                // Opened before chunks were staged separately; holds the plaintext
+                content = Files.newInputStream(legacyFile);
+            } else {
+                List<InputStream> chunks = new ArrayList<>();
+                for (int i = 0; i < chunkCount; i++) {
+                    chunks.add(new LazyChunkInputStream(resolveUploadChunk(sessionId, i)));
+                }
+                content = new SequenceInputStream(Collections.enumeration(chunks));
+            }
             
-            return encryptedFilePath;
+            try (InputStream in = content) {
+                return storeFile(in, originalFileName);
+            }
         } catch (IOException ex) {
-            throw new FileStorageException("Could not store file " + originalFileName + ". Please try again!", ex);
+            throw new FileStorageException("Could not store upload session " + sessionId + " (" + originalFileName + ")", ex);
+        }
+    }
+    
+    /**
+     * Delete the staged chunks of an upload session
+     * 
+     * @param sessionId The upload session ID
+     */
+    public void deleteUploadSessionFile(String sessionId) {
+        try {
+            Files.deleteIfExists(resolveLegacyUploadSessionFile(sessionId));
+            Path directory = resolveUploadSessionDirectory(sessionId);
+            if (Files.isDirectory(directory)) {
+                try (Stream<Path> files = Files.list(directory)) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+                Files.deleteIfExists(directory);
+            }
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not delete upload session file for " + sessionId, ex);
+        }
+    }
+    
+    /**
+     * Remove staged uploads left behind when the process died before handing them
+     * to the backend
+     */
+    @Scheduled(fixedDelayString = "${file.upload-session-sweep-interval:PT1H}")
+    public void deleteStaleStagingFiles() {
+        Instant cutoff = Instant.now().minus(STALE_STAGING_AGE);
+        int deleted = 0;
+        try (Stream<Path> files = Files.list(tempLocation)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.getLastModifiedTime(file).toInstant().isBefore(cutoff) && Files.deleteIfExists(file)) {
+                    deleted++;
+                }
+            }
+        } catch (IOException ex) {
+            logger.warn("Could not clean up staged uploads in {}", tempLocation, ex);
+        }
+        
+        if (deleted > 0) {
+            logger.info("Deleted {} stale staged uploads", deleted);
         }
     }
     
@@ -84,39 +295,114 @@ public class FileStorageService {
      * @return The file resource
      */
     public Resource loadFileAsResource(String encryptedFilePath) {
+        String key = resolveKey(encryptedFilePath);
+        
+        Optional<Path> localPath = storageBackend.getLocalPath(key);
+        if (localPath.isPresent()) {
+            return new FileSystemResource(localPath.get());
+        }
+        
         try {
-            // Decrypt the file path
-            String decryptedFilePath = encryptionUtil.decrypt(encryptedFilePath);
-            
-            Path filePath = this.fileStorageLocation.resolve(decryptedFilePath).normalize();
-            Resource resource = new UrlResource(filePath.toUri());
+            return new InputStreamResource(storageBackend.get(key));
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not read file: " + encryptedFilePath, ex);
+        }
+    }
+    
+    /**
+     * Load the content of a stored file for sending it to a client
+     * 
+     * @param encryptedFilePath The encrypted file path
+     * @return The stored content
+     */
+    public StoredContent loadContent(String encryptedFilePath) {
+        String key = resolveKey(encryptedFilePath);
+        Optional<Path> localPath = storageBackend.getLocalPath(key);
+        
+        return new StoredContent() {
+            @Override
+            public Optional<Path> getLocalPath() {
+                return localPath;
+            }
             
-            if (resource.exists()) {
-                return resource;
-            } else {
-                throw new FileNotFoundException("File not found: " + encryptedFilePath);
+            @Override
+            public InputStream openRange(long offset, long length) throws IOException {
+                return storageBackend.getRange(key, offset, length);
             }
-        } catch (MalformedURLException ex) {
-            throw new FileNotFoundException("File not found: " + encryptedFilePath, ex);
-        }
+        };
     }
     
     /**
-     * Delete a file
+     * Delete a file. Content-addressed files lose one reference and are removed
+     * after the surrounding transaction commits once nothing refers to them.
      * 
      * @param encryptedFilePath The encrypted file path
-     * @return true if file was deleted, false otherwise
+     * @return true if file was deleted or released, false otherwise
      */
     public boolean deleteFile(String encryptedFilePath) {
-        try {
-            // Decrypt the file path
-            String decryptedFilePath = encryptionUtil.decrypt(encryptedFilePath);
-            
-            Path filePath = this.fileStorageLocation.resolve(decryptedFilePath).normalize();
-            
-            return Files.deleteIfExists(filePath);
-        } catch (IOException ex) {
-            throw new FileStorageException("Could not delete file: " + encryptedFilePath, ex);
+        String key = resolveKey(encryptedFilePath);
+        
+        if (isBlobName(key)) {
+            blobReferenceService.removeReference(key, this::deleteObject);
+            return true;
+        }
+        
+        return deleteObject(key);
+    }
+    
+    /**
+     * Delete several files at once, e.g. for a batch of deleted documents. Blob
+     * references are dropped in hash order, so concurrent batches take the blob
+     * locks in the same order, and all files are removed after the surrounding
+     * transaction commits.
+     * 
+     * @param encryptedFilePaths The encrypted file paths
+     */
+    public void deleteFiles(Collection<String> encryptedFilePaths) {
+        List<String> blobKeys = new ArrayList<>();
+        List<String> plainKeys = new ArrayList<>();
+        for (String encryptedFilePath : encryptedFilePaths) {
+            String key = resolveKey(encryptedFilePath);
+            (isBlobName(key) ? blobKeys : plainKeys).add(key);
+            evictStorageKey(encryptedFilePath);
+        }
+        
+        blobKeys.sort(null);
+        for (String key : blobKeys) {
+            blobReferenceService.removeReference(key, this::deleteObject);
+        }
+        
+        if (plainKeys.isEmpty()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            plainKeys.forEach(this::deleteObject);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                plainKeys.forEach(key -> {
+                    try {
+                        deleteObject(key);
+                    } catch (FileStorageException ex) {
+                        // The rows are gone already; an orphaned file only costs space
+                        logger.warn("Could not delete file {} of a deleted document", key, ex);
+                    }
+                });
+            }
+        });
+    }
+    
+    /**
+     * Forget the cached storage key of an encrypted path, e.g. once its document is
+     * deleted or points to a different file
+     * 
+     * @param encryptedFilePath The encrypted file path
+     */
+    public void evictStorageKey(String encryptedFilePath) {
+        if (encryptedFilePath != null) {
+            storageKeyCache.invalidate(encryptedFilePath);
         }
     }
     
@@ -128,33 +414,162 @@ public class FileStorageService {
      */
     public long getFileSize(String encryptedFilePath) {
         try {
-            // Decrypt the file path
-            String decryptedFilePath = encryptionUtil.decrypt(encryptedFilePath);
-            
-            Path filePath = this.fileStorageLocation.resolve(decryptedFilePath).normalize();
-            
-            return Files.size(filePath);
+            return storageBackend.stat(resolveKey(encryptedFilePath))
+                .orElseThrow(() -> new FileNotFoundException("File not found: " + encryptedFilePath))
+                .getSize();
         } catch (IOException ex) {
             throw new FileStorageException("Could not get file size: " + encryptedFilePath, ex);
         }
     }
     
     /**
-     * Get file content type
-     * 
-     * @param encryptedFilePath The encrypted file path
-     * @return The file content type
+     * Reference the blob for a hash, moving the freshly written file into place
+     * if this is the first copy of the content and discarding it otherwise.
      */
-    public String getFileContentType(String encryptedFilePath) {
+    private StoredFile linkBlob(Path source, String hash, long size) {
         try {
-            // Decrypt the file path
-            String decryptedFilePath = encryptionUtil.decrypt(encryptedFilePath);
-            
-            Path filePath = this.fileStorageLocation.resolve(decryptedFilePath).normalize();
+            blobReferenceService.addReference(hash, size, () -> {
+                try {
+                    if (storageBackend.stat(hash).isPresent()) {
+                        Files.delete(source);
+                    } else {
+                        storageBackend.putFile(hash, source);
+                    }
+                } catch (IOException ex) {
+                    throw new FileStorageException("Could not store blob " + hash, ex);
+                }
+            });
+        } finally {
+            deleteQuietly(source);
+        }
+        
+        // Encrypt the file path before storing in database
+        return new StoredFile(encryptionUtil.encrypt(hash), size, hash);
+    }
+    
+    private String resolveKey(String encryptedFilePath) {
+        String key = storageKeyCache.getIfPresent(encryptedFilePath);
+        if (key != null) {
+            return key;
+        }
+        
+        // Decrypt the file path
+        String fileName = encryptionUtil.decrypt(encryptedFilePath);
+        
+        if (fileName.isEmpty() || fileName.startsWith(".") || fileName.contains("/") || fileName.contains("\\")) {
+            throw new FileNotFoundException("File not found: " + encryptedFilePath);
+        }
+        
+        storageKeyCache.put(encryptedFilePath, fileName);
+        return fileName;
+    }
+    
+    private boolean isBlobName(String fileName) {
+        return BLOB_NAME.matcher(fileName).matches();
+    }
+    
+    private boolean deleteObject(String key) {
+        try {
+            return storageBackend.delete(key);
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not delete file: " + key, ex);
+        }
+    }
+    
+    private Path resolveUploadSessionDirectory(String sessionId) {
+        // Session IDs are generated UUIDs; reject anything that could escape the directory
+        if (!sessionId.matches("[0-9a-fA-F-]{36}")) {
+            throw new BadRequestException("Invalid upload session ID: " + sessionId);
+        }
+        return this.uploadSessionLocation.resolve(sessionId);
+    }
+    
+    private Path resolveUploadChunk(String sessionId, int chunkIndex) {
+        return resolveUploadSessionDirectory(sessionId).resolve(chunkIndex + ".part");
+    }
+    
+    private Path resolveLegacyUploadSessionFile(String sessionId) {
+        return resolveUploadSessionDirectory(sessionId).resolveSibling(sessionId + ".part");
+    }
+    
+    /**
+     * Write a chunk in place into the single, preallocated file that sessions opened
+     * before chunks were staged separately are assembled in
+     */
+    private void writeLegacyUploadChunk(Path sessionFile, long offset, long length, InputStream in) {
+        try (FileChannel channel = FileChannel.open(sessionFile, StandardOpenOption.WRITE)) {
+            ReadableByteChannel source = Channels.newChannel(in);
+            long written = 0;
+            while (written < length) {
+                long transferred = channel.transferFrom(source, offset + written, length - written);
+                if (transferred <= 0) {
+                    break;
+                }
+                written += transferred;
+            }
             
-            return Files.probeContentType(filePath);
+            if (written < length) {
+                throw new BadRequestException("Chunk is shorter than expected: " + written + " of " + length + " bytes");
+            }
+            if (in.read() != -1) {
+                throw new BadRequestException("Chunk is longer than expected " + length + " bytes");
+            }
         } catch (IOException ex) {
-            throw new FileStorageException("Could not determine file content type: " + encryptedFilePath, ex);
+            throw new FileStorageException("Could not write chunk to " + sessionFile.getFileName(), ex);
+        }
+    }
+    
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // Best effort clean-up of a partially written file
+        }
+    }
+    
+    /**
+     * A staged chunk, opened and decoded only when it is first read, so that a
+     * session with many chunks holds at most one of them open
+     */
+    private class LazyChunkInputStream extends InputStream {
+        
+        private final Path chunkFile;
+        private InputStream in;
+        
+        LazyChunkInputStream(Path chunkFile) {
+            this.chunkFile = chunkFile;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            return open().read();
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return open().read(b, off, len);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+        
+        private InputStream open() throws IOException {
+            if (in == null) {
+                in = storageBackend.readStaged(Files.newInputStream(chunkFile));
+            }
+            return in;
+        }
+    }
+    
+    private MessageDigest newContentDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
         }
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,258 @@
+package io.github.acosentini.dms.service;
+
+import io.github.acosentini.dms.exception.FileStorageException;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Service
+public class FileTransferService {
+
+    // Request attributes understood by Tomcat's NIO connector (see org.apache.catalina.Globals)
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_FILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_FILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // Below this size the sendfile hand-off costs more than it saves (same threshold as Tomcat's DefaultServlet)
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+    private static final String MULTIPART_BYTERANGES = "multipart/byteranges; boundary=";
+
+    /**
+     * Write stored content to the response body, without copying it through the heap
+     * when it is on local disk.
+     *
+     * Conditional requests (If-None-Match, If-Modified-Since) are answered with 304,
+     * and Range requests with 206, honouring If-Range. For local files, single-range
+     * and full transfers are handed over to Tomcat when the connector supports
+     * sendfile, which writes the file straight to the socket once the servlet
+     * returns; otherwise the bytes are pushed with FileChannel.transferTo. Content
+     * in a remote backend is streamed, fetching only the requested ranges.
+     *
+     * @param content The content to send
+     * @param length The number of bytes in the file, usually the stored document size
+     * @param contentType The response content type
+     * @param fileName The file name offered to the client
+     * @param etag The strong entity tag of the file, including quotes
+     * @param lastModified The last modification time in milliseconds since the epoch
+     * @param request The HTTP request
+     * @param response The HTTP response
+     */
+    public void sendFile(StoredContent content, long length, String contentType, String fileName, String etag,
+                         long lastModified, HttpServletRequest request, HttpServletResponse response) {
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        // Sets ETag/Last-Modified and answers 304 or 412 when the client's copy is current
+        if (new ServletWebRequest(request, response).checkNotModified(etag, lastModified)) {
+            return;
+        }
+
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+
+        try {
+            List<long[]> ranges = resolveRanges(request, etag, lastModified, length);
+
+            if (ranges == null) {
+                response.setStatus(HttpServletResponse.SC_OK);
+                response.setContentType(contentType);
+                response.setContentLengthLong(length);
+                sendRegion(content, 0, length, request, response);
+            } else if (ranges.isEmpty()) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            } else if (ranges.size() == 1) {
+                long start = ranges.get(0)[0];
+                long end = ranges.get(0)[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setContentType(contentType);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+                response.setContentLengthLong(end - start + 1);
+                sendRegion(content, start, end - start + 1, request, response);
+            } else {
+                sendMultipleRanges(content, ranges, length, contentType, response);
+            }
+        } catch (IOException ex) {
+            throw new FileStorageException("Could not send file " + fileName, ex);
+        }
+    }
+
+    /**
+     * Work out which byte ranges to send.
+     *
+     * @return null to send the whole file, an empty list if no requested range is
+     *         satisfiable, otherwise the inclusive [start, end] pairs to send
+     */
+    private List<long[]> resolveRanges(HttpServletRequest request, String etag, long lastModified, long length) {
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader == null || !isIfRangeSatisfied(request, etag, lastModified)) {
+            return null;
+        }
+
+        List<HttpRange> httpRanges;
+        try {
+            httpRanges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException ex) {
+            // A malformed Range header is ignored rather than rejected
+            return null;
+        }
+        if (httpRanges.isEmpty()) {
+            return null;
+        }
+
+        List<long[]> ranges = new ArrayList<>(httpRanges.size());
+        long total = 0;
+        for (HttpRange httpRange : httpRanges) {
+            long start;
+            long end;
+            try {
+                start = httpRange.getRangeStart(length);
+                end = httpRange.getRangeEnd(length);
+            } catch (IllegalArgumentException ex) {
+                // Range lies beyond the end of the file
+                continue;
+            }
+            if (start > end) {
+                continue;
+            }
+            ranges.add(new long[] {start, end});
+            total += end - start + 1;
+        }
+
+        // Overlapping ranges asking for more than the whole file are served as a normal response
+        if (total > length) {
+            return null;
+        }
+
+        return ranges.isEmpty() ? Collections.emptyList() : ranges;
+    }
+
+    private boolean isIfRangeSatisfied(HttpServletRequest request, String etag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range requires a strong comparison, so weak validators never match
+            return ifRange.equals(etag);
+        }
+        try {
+            long ifRangeDate = request.getDateHeader(HttpHeaders.IF_RANGE);
+            return ifRangeDate / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    private void sendRegion(StoredContent content, long start, long count, HttpServletRequest request,
+                            HttpServletResponse response) throws IOException {
+        Optional<Path> localPath = content.getLocalPath();
+        if (localPath.isEmpty()) {
+            try (InputStream in = content.openRange(start, count)) {
+                copy(in, count, response.getOutputStream());
+            }
+            response.flushBuffer();
+            return;
+        }
+        
+        Path file = localPath.get();
+        if (count >= SENDFILE_MIN_SIZE && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, file.toRealPath().toString());
+            request.setAttribute(SENDFILE_FILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_FILE_END_ATTR, start + count);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            transferTo(channel, start, count, Channels.newChannel(response.getOutputStream()));
+        }
+        response.flushBuffer();
+    }
+
+    private void sendMultipleRanges(StoredContent content, List<long[]> ranges, long length, String contentType,
+                                    HttpServletResponse response) throws IOException {
+        String boundary = UUID.randomUUID().toString().replace("-", "");
+
+        // Build the part headers up front so the response can carry an exact Content-Length
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (long[] range : ranges) {
+            byte[] header = ("\r\n--" + boundary + "\r\n"
+                + HttpHeaders.CONTENT_TYPE + ": " + contentType + "\r\n"
+                + HttpHeaders.CONTENT_RANGE + ": bytes " + range[0] + "-" + range[1] + "/" + length + "\r\n"
+                + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(header);
+            contentLength += header.length + (range[1] - range[0] + 1);
+        }
+        byte[] trailer = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += trailer.length;
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setContentType(MULTIPART_BYTERANGES + boundary);
+        response.setContentLengthLong(contentLength);
+
+        ServletOutputStream out = response.getOutputStream();
+        Optional<Path> localPath = content.getLocalPath();
+        if (localPath.isPresent()) {
+            WritableByteChannel target = Channels.newChannel(out);
+            try (FileChannel channel = FileChannel.open(localPath.get(), StandardOpenOption.READ)) {
+                for (int i = 0; i < ranges.size(); i++) {
+                    long[] range = ranges.get(i);
+                    out.write(partHeaders.get(i));
+                    transferTo(channel, range[0], range[1] - range[0] + 1, target);
+                }
+            }
+        } else {
+            for (int i = 0; i < ranges.size(); i++) {
+                long[] range = ranges.get(i);
+                long count = range[1] - range[0] + 1;
+                out.write(partHeaders.get(i));
+                try (InputStream in = content.openRange(range[0], count)) {
+                    copy(in, count, out);
+                }
+            }
+        }
+        out.write(trailer);
+        response.flushBuffer();
+    }
+
+    private void transferTo(FileChannel channel, long position, long count, WritableByteChannel target)
+            throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long transferred = channel.transferTo(position, end - position, target);
+            if (transferred <= 0) {
+                // The file is shorter than the advertised length
+                throw new IOException("Unexpected end of file at offset " + position);
+            }
+            position += transferred;
+        }
+    }
+
+    private void copy(InputStream in, long count, ServletOutputStream out) throws IOException {
+        long copied = in.transferTo(out);
+        if (copied < count) {
+            // The object is shorter than the advertised length
+            throw new IOException("Unexpected end of content after " + copied + " of " + count + " bytes");
+        }
+    }
+}
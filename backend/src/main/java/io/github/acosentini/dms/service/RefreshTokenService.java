@@ -0,0 +1,207 @@
+package io.github.acosentini.dms.service;
+
+import io.github.acosentini.dms.exception.ResourceNotFoundException;
+import io.github.acosentini.dms.model.RefreshToken;
+import io.github.acosentini.dms.model.User;
+import io.github.acosentini.dms.repository.RefreshTokenRepository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Date;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues, validates and revokes refresh tokens.
+ *
+ * Only the SHA-256 of a token is stored. Recently validated tokens are kept in
+ * memory for a short while, so repeated refreshes skip the database; a token
+ * revoked on another instance stays usable here for at most that long. Expired
+ * tokens that are never presented again are removed by a scheduled sweep in
+ * bounded batches.
+ */
+@Service
+public class RefreshTokenService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RefreshTokenService.class);
+
+    @Autowired
+    private RefreshTokenRepository refreshTokenRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.refreshTokenExpirationInMs}")
+    private long refreshTokenExpirationInMs;
+
+    @Value("${app.refreshTokenCacheSize:10000}")
+    private long refreshTokenCacheSize;
+
+    // Bounds how long a revocation takes to reach the other instances
+    @Value("${app.refreshTokenCacheTtl:30s}")
+    private Duration refreshTokenCacheTtl;
+
+    @Value("${app.refreshTokenSweepBatchSize:1000}")
+    private int sweepBatchSize;
+
+    // Token hash -> owner and expiry of a token known to be valid
+    private Cache<String, ValidToken> validTokens;
+
+    @PostConstruct
+    public void init() {
+        validTokens = Caffeine.newBuilder()
+            .maximumSize(refreshTokenCacheSize)
+            .expireAfter(new Expiry<String, ValidToken>() {
+                @Override
+                public long expireAfterCreate(String key, ValidToken token, long currentTime) {
+                    long untilExpiry = TimeUnit.MILLISECONDS.toNanos(Math.max(0, token.expiresAt - System.currentTimeMillis()));
+                    return Math.min(untilExpiry, refreshTokenCacheTtl.toNanos());
+                }
+
+                @Override
+                public long expireAfterUpdate(String key, ValidToken token, long currentTime, long currentDuration) {
+                    return expireAfterCreate(key, token, currentTime);
+                }
+
+                @Override
+                public long expireAfterRead(String key, ValidToken token, long currentTime, long currentDuration) {
+                    return currentDuration;
+                }
+            })
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, validTokens, "refreshTokens");
+    }
+
+    /**
+     * Issue a refresh token
+     * 
+     * @param user The user the token is issued to
+     * @return The token, to be handed to the client
+     */
+    public String createRefreshToken(User user) {
+        Date expiryDate = new Date(System.currentTimeMillis() + refreshTokenExpirationInMs);
+        String token = UUID.randomUUID().toString();
+        String tokenHash = hashToken(token);
+        
+        refreshTokenRepository.save(new RefreshToken(user, tokenHash, expiryDate));
+        validTokens.put(tokenHash, new ValidToken(user.getId(), expiryDate.getTime()));
+        
+        return token;
+    }
+
+    /**
+     * Check that a refresh token exists and has not expired. An expired token is deleted.
+     * 
+     * @param token The refresh token
+     * @return true if the token is valid
+     */
+    public boolean validateRefreshToken(String token) {
+        return findValidToken(token).isPresent();
+    }
+
+    /**
+     * Get the user a refresh token was issued to
+     * 
+     * @param token The refresh token
+     * @return The user
+     */
+    public User getUserFromRefreshToken(String token) {
+        return findValidToken(token)
+            .map(validToken -> userService.getUserById(validToken.userId))
+            .orElseThrow(() -> new ResourceNotFoundException("Refresh token not found"));
+    }
+
+    /**
+     * Revoke a refresh token
+     * 
+     * @param token The refresh token
+     */
+    public void invalidateRefreshToken(String token) {
+        String tokenHash = hashToken(token);
+        validTokens.invalidate(tokenHash);
+        refreshTokenRepository.deleteByTokenHash(tokenHash);
+    }
+
+    /**
+     * Remove expired tokens, one bounded batch per transaction so that the sweep
+     * never holds locks on a large part of the table
+     */
+    @Scheduled(fixedDelayString = "${app.refreshTokenSweepInterval:PT1H}")
+    public void deleteExpiredTokens() {
+        Date now = new Date();
+        long deleted = 0;
+        int batch;
+        do {
+            batch = refreshTokenRepository.deleteExpiredBatch(now, sweepBatchSize);
+            deleted += batch;
+        } while (batch == sweepBatchSize);
+        
+        if (deleted > 0) {
+            logger.info("Deleted {} expired refresh tokens", deleted);
+        }
+    }
+
+    private Optional<ValidToken> findValidToken(String token) {
+        String tokenHash = hashToken(token);
+        long now = System.currentTimeMillis();
+        
+        ValidToken cached = validTokens.getIfPresent(tokenHash);
+        if (cached != null && cached.expiresAt > now) {
+            return Optional.of(cached);
+        }
+        
+        return refreshTokenRepository.findByTokenHash(tokenHash)
+            .flatMap(refreshToken -> {
+                if (refreshToken.getExpiryDate().getTime() <= now) {
+                    refreshTokenRepository.delete(refreshToken);
+                    validTokens.invalidate(tokenHash);
+                    return Optional.empty();
+                }
+                ValidToken validToken = new ValidToken(refreshToken.getUser().getId(),
+                    refreshToken.getExpiryDate().getTime());
+                validTokens.put(tokenHash, validToken);
+                return Optional.of(validToken);
+            });
+    }
+
+    private String hashToken(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is not available", ex);
+        }
+    }
+
+    private static final class ValidToken {
+
+        private final long userId;
+        private final long expiresAt;
+
+        private ValidToken(long userId, long expiresAt) {
+            this.userId = userId;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package io.github.acosentini.dms.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * The content of a stored file, as needed to send it to a client
+ */
+public interface StoredContent {
+
+    /**
+     * @return The file on local disk if it can be sent as-is with sendfile, otherwise empty
+     */
+    Optional<Path> getLocalPath();
+
+    /**
+     * Open part of the content for reading
+     *
+     * @param offset The first byte to read
+     * @param length The number of bytes to read
+     * @return The requested bytes; the caller closes the stream
+     */
+    InputStream openRange(long offset, long length) throws IOException;
+}
@@ -0,0 +1,32 @@
+package io.github.acosentini.dms.service;
+
+/**
+ * Result of writing a file into storage
+ */
+public class StoredFile {
+
+    private final String encryptedPath;
+    private final long size;
+    private final String contentHash;
+
+    public StoredFile(String encryptedPath, long size, String contentHash) {
+        this.encryptedPath = encryptedPath;
+        this.size = size;
+        this.contentHash = contentHash;
+    }
+
+    public String getEncryptedPath() {
+        return encryptedPath;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return Hex encoded SHA-256 of the stored bytes
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+}
@@ -0,0 +1,259 @@
+package io.github.acosentini.dms.service;
+
+import io.github.acosentini.dms.config.FileStorageProperties;
+import io.github.acosentini.dms.dto.DocumentDTO;
+import io.github.acosentini.dms.dto.UploadSessionRequest;
+import io.github.acosentini.dms.exception.BadRequestException;
+import io.github.acosentini.dms.exception.ConflictException;
+import io.github.acosentini.dms.exception.FileTooLargeException;
+import io.github.acosentini.dms.exception.ResourceNotFoundException;
+import io.github.acosentini.dms.model.Document;
+import io.github.acosentini.dms.model.UploadSession;
+import io.github.acosentini.dms.repository.UploadSessionRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.InputStream;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+@Service
+public class UploadSessionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadSessionService.class);
+
+    @Autowired
+    private UploadSessionRepository uploadSessionRepository;
+    
+    @Autowired
+    private UserService userService;
+    
+    @Autowired
+    private DocumentService documentService;
+    
+    @Autowired
+    private TagService tagService;
+    
+    @Autowired
+    private FileStorageService fileStorageService;
+    
+    @Autowired
+    private FileStorageProperties fileStorageProperties;
+    
+    /**
+     * Open a new upload session
+     * 
+     * @param request The session parameters
+     * @param userId The ID of the user uploading the document
+     * @return The created session
+     */
+    @Transactional
+    public UploadSession openSession(UploadSessionRequest request, Long userId) {
+        long totalSize = request.getTotalSize();
+        if (totalSize > fileStorageProperties.getMaxUploadSize().toBytes()) {
+            throw new FileTooLargeException("File exceeds the maximum upload size of "
+                + fileStorageProperties.getMaxUploadSize().toBytes() + " bytes");
+        }
+        
+        long chunkSize = request.getChunkSize() != null
+            ? request.getChunkSize()
+            : fileStorageProperties.getUploadChunkSize().toBytes();
+        if (chunkSize > fileStorageProperties.getMaxUploadChunkSize().toBytes()) {
+            throw new BadRequestException("Chunk size exceeds the maximum of "
+                + fileStorageProperties.getMaxUploadChunkSize().toBytes() + " bytes");
+        }
+        
+        ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+        
+        UploadSession session = new UploadSession();
+        session.setId(UUID.randomUUID().toString());
+        session.setOwner(userService.getUserById(userId));
+        session.setName(request.getName());
+        session.setFileName(request.getFileName() != null ? request.getFileName() : request.getName());
+        session.setContentType(request.getContentType());
+        session.setTotalSize(totalSize);
+        session.setChunkSize((int) chunkSize);
+        session.setChunkCount((int) ((totalSize + chunkSize - 1) / chunkSize));
+        session.setCreatedAt(now);
+        session.setExpiresAt(now.plus(fileStorageProperties.getUploadSessionTimeout()));
+        if (request.getTagIds() != null) {
+            // Checked now rather than on completion, after the whole file has been uploaded
+            for (Long tagId : request.getTagIds()) {
+                if (!tagService.getTagById(tagId).getOwner().getId().equals(userId)) {
+                    throw new BadRequestException("Cannot use a tag that doesn't belong to the uploading user");
+                }
+            }
+            session.setTagIds(new HashSet<>(request.getTagIds()));
+        }
+        
+        fileStorageService.createUploadSession(session.getId());
+        
+        return uploadSessionRepository.save(session);
+    }
+    
+    /**
+     * Get an upload session owned by a user
+     * 
+     * @param sessionId The session ID
+     * @param userId The ID of the requesting user
+     * @return The session
+     */
+    public UploadSession getSession(String sessionId, Long userId) {
+        UploadSession session = uploadSessionRepository.findById(sessionId)
+            .orElseThrow(() -> new ResourceNotFoundException("Upload session not found with id: " + sessionId));
+        
+        // Sessions of other users are reported as missing rather than forbidden
+        if (!session.getOwner().getId().equals(userId)
+                || session.getExpiresAt().isBefore(ZonedDateTime.now(ZoneOffset.UTC))) {
+            throw new ResourceNotFoundException("Upload session not found with id: " + sessionId);
+        }
+        
+        return session;
+    }
+    
+    /**
+     * Get the indexes of the chunks received so far
+     * 
+     * @param sessionId The session ID
+     * @return Sorted chunk indexes
+     */
+    public List<Integer> getReceivedChunks(String sessionId) {
+        return uploadSessionRepository.findReceivedChunks(sessionId);
+    }
+    
+    /**
+     * Write one chunk of an upload session. Chunks may arrive in any order and in
+     * parallel; re-sending a chunk replaces it.
+     * 
+     * @param sessionId The session ID
+     * @param chunkIndex The zero-based chunk index
+     * @param in The chunk content
+     * @param userId The ID of the uploading user
+     */
+    public void writeChunk(String sessionId, int chunkIndex, InputStream in, Long userId) {
+        UploadSession session = getSession(sessionId, userId);
+        
+        checkNotCompleting(session);
+        if (chunkIndex < 0 || chunkIndex >= session.getChunkCount()) {
+            throw new BadRequestException("Chunk index out of range: " + chunkIndex);
+        }
+        
+        fileStorageService.writeUploadChunk(
+            sessionId,
+            chunkIndex,
+            session.getChunkOffset(chunkIndex),
+            session.getChunkLength(chunkIndex),
+            in
+        );
+        
+        uploadSessionRepository.markChunkReceived(sessionId, chunkIndex);
+    }
+    
+    /**
+     * Turn a complete upload session into a document
+     * 
+     * @param sessionId The session ID
+     * @param userId The ID of the uploading user
+     * @return The created document
+     */
+    public Document completeSession(String sessionId, Long userId) {
+        // Not transactional: hashing a large file must not hold a database connection
+        UploadSession session = getSession(sessionId, userId);
+        
+        long received = uploadSessionRepository.countReceivedChunks(sessionId);
+        if (received < session.getChunkCount()) {
+            throw new BadRequestException("Upload session is incomplete: received " + received
+                + " of " + session.getChunkCount() + " chunks");
+        }
+        
+        // Of concurrent calls only the first gets here, so the file is stored once
+        if (uploadSessionRepository.claimForCompletion(sessionId) == 0) {
+            throw new ConflictException("Upload session is already being completed: " + sessionId);
+        }
+        
+        // The staged chunks are only read here, so a failed completion leaves them in
+        // place and the client can retry; they are deleted once the document is committed
+        Document document;
+        try {
+            document = storeDocument(session, userId);
+        } catch (RuntimeException e) {
+            uploadSessionRepository.releaseCompletion(sessionId);
+            throw e;
+        }
+        
+        uploadSessionRepository.delete(session);
+        fileStorageService.deleteUploadSessionFile(sessionId);
+        
+        return document;
+    }
+    
+    private Document storeDocument(UploadSession session, Long userId) {
+        StoredFile storedFile = fileStorageService.storeUploadSessionFile(
+            session.getId(), session.getChunkCount(), session.getFileName());
+        
+        DocumentDTO documentDTO = new DocumentDTO();
+        documentDTO.setName(session.getName());
+        documentDTO.setFilePath(storedFile.getEncryptedPath());
+        documentDTO.setFileSize(storedFile.getSize());
+        documentDTO.setFileType(session.getContentType());
+        documentDTO.setContentHash(storedFile.getContentHash());
+        if (!session.getTagIds().isEmpty()) {
+            documentDTO.setTagIds(new HashSet<>(session.getTagIds()));
+        }
+        
+        try {
+            return documentService.createDocument(documentDTO, userId);
+        } catch (RuntimeException e) {
+            fileStorageService.deleteFile(storedFile.getEncryptedPath());
+            throw e;
+        }
+    }
+    
+    /**
+     * Abandon an upload session and discard its data
+     * 
+     * @param sessionId The session ID
+     * @param userId The ID of the uploading user
+     */
+    @Transactional
+    public void abortSession(String sessionId, Long userId) {
+        UploadSession session = getSession(sessionId, userId);
+        checkNotCompleting(session);
+        
+        uploadSessionRepository.delete(session);
+        fileStorageService.deleteUploadSessionFile(sessionId);
+    }
+    
+    private void checkNotCompleting(UploadSession session) {
+        // The session file is being stored; changing or deleting it now would corrupt the document
+        if (session.isCompleting()) {
+            throw new ConflictException("Upload session is being completed: " + session.getId());
+        }
+    }
+    
+    /**
+     * Remove sessions that were never completed
+     */
+    @Scheduled(fixedDelayString = "${file.upload-session-sweep-interval:PT1H}")
+    @Transactional
+    public void deleteExpiredSessions() {
+        List<UploadSession> expired = uploadSessionRepository.findByExpiresAtBefore(ZonedDateTime.now(ZoneOffset.UTC));
+        
+        for (UploadSession session : expired) {
+            uploadSessionRepository.delete(session);
+            fileStorageService.deleteUploadSessionFile(session.getId());
+        }
+        
+        if (!expired.isEmpty()) {
+            logger.info("Deleted {} expired upload sessions", expired.size());
+        }
+    }
+}
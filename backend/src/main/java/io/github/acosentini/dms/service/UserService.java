@@ -3,18 +3,29 @@ package io.github.acosentini.dms.service;
 import io.github.acosentini.dms.model.User;
 import io.github.acosentini.dms.repository.UserRepository;
 import io.github.acosentini.dms.exception.ResourceNotFoundException;
+import io.github.acosentini.dms.exception.ServiceUnavailableException;
 import io.github.acosentini.dms.security.JwtTokenProvider;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 
 @Service
 public class UserService {
@@ -31,51 +42,85 @@ public class UserService {
     @Autowired
     private JwtTokenProvider tokenProvider;
     
+    @Autowired
+    private MeterRegistry meterRegistry;
+    
+    // Bounded pool that runs BCrypt, see PasswordHashingConfig
+    @Autowired
+    @Qualifier("passwordHashingExecutor")
+    private ExecutorService passwordHashingExecutor;
+    
+    @Value("${app.userCacheSize:10000}")
+    private long userCacheSize;
+    
+    @Value("${app.userCacheTtl:5m}")
+    private Duration userCacheTtl;
+    
+    // Users by id, shared across requests; entries are detached entities
+    private Cache<Long, User> userCache;
+    
+    @PostConstruct
+    public void init() {
+        userCache = Caffeine.newBuilder()
+            .maximumSize(userCacheSize)
+            .expireAfterWrite(userCacheTtl)
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, userCache, "users");
+    }
+    
     /**
      * Register a new user
      * 
      * @param user The user to register
-     * @return The registered user
+     * @return The registered user, once the password is hashed and the user saved
      */
-    public User registerUser(User user) {
+    public CompletableFuture<User> registerUser(User user) {
         // Check if username already exists
         if (userRepository.findByUsername(user.getUsername()).isPresent()) {
             throw new IllegalArgumentException("Username already exists");
         }
         
         // Encode password
-        user.setPassword(passwordEncoder.encode(user.getPassword()));
-        
-        // Save user
-        return userRepository.save(user);
+        String rawPassword = user.getPassword();
+        return hashOffRequestThread(() -> passwordEncoder.encode(rawPassword))
+            .thenApply(encodedPassword -> {
+                user.setPassword(encodedPassword);
+                
+                // Save user
+                return userRepository.save(user);
+            });
     }
     
     /**
-     * Authenticate a user and generate JWT token
+     * Authenticate a user
      * 
      * @param username The username
      * @param password The password
-     * @return JWT token
+     * @return The user, once the password is verified; fails with
+     *         BadCredentialsException if it is wrong
      */
-    public User authenticateUser(String username, String password) {
-        Authentication authentication = authenticationManager.authenticate(
-            new UsernamePasswordAuthenticationToken(username, password)
-        );
-        
-        SecurityContextHolder.getContext().setAuthentication(authentication);
-        
-        return getUserByUsername(username);
+    public CompletableFuture<User> authenticateUser(String username, String password) {
+        return hashOffRequestThread(() -> {
+            authenticationManager.authenticate(new UsernamePasswordAuthenticationToken(username, password));
+            return getUserByUsername(username);
+        });
     }
     
     /**
-     * Get user by ID
+     * Get user by ID. Served from the user cache when possible; the returned entity
+     * may be detached and must not be modified.
      * 
      * @param id The user ID
      * @return The user
      */
     public User getUserById(Long id) {
-        return userRepository.findById(id)
-            .orElseThrow(() -> new ResourceNotFoundException("User not found with id: " + id));
+        User user = userCache.getIfPresent(id);
+        if (user == null) {
+            user = loadUserById(id);
+            userCache.put(id, user);
+        }
+        return user;
     }
     
     /**
@@ -103,19 +148,27 @@ public class UserService {
      * 
      * @param id The user ID
      * @param userDetails The updated user details
-     * @return The updated user
+     * @return The updated user, once a new password is hashed and the user saved
      */
-    public User updateUser(Long id, User userDetails) {
-        User user = getUserById(id);
-        
-        user.setUsername(userDetails.getUsername());
+    public CompletableFuture<User> updateUser(Long id, User userDetails) {
+        User user = loadUserById(id);
         
         // Only update password if it's provided
-        if (userDetails.getPassword() != null && !userDetails.getPassword().isEmpty()) {
-            user.setPassword(passwordEncoder.encode(userDetails.getPassword()));
-        }
+        String rawPassword = userDetails.getPassword();
+        CompletableFuture<String> encodedPassword = rawPassword != null && !rawPassword.isEmpty()
+            ? hashOffRequestThread(() -> passwordEncoder.encode(rawPassword))
+            : CompletableFuture.completedFuture(null);
         
-        return userRepository.save(user);
+        return encodedPassword.thenApply(password -> {
+            user.setUsername(userDetails.getUsername());
+            if (password != null) {
+                user.setPassword(password);
+            }
+            
+            User updated = userRepository.save(user);
+            userCache.invalidate(id);
+            return updated;
+        });
     }
     
     /**
@@ -124,8 +177,9 @@ public class UserService {
      * @param id The user ID
      */
     public void deleteUser(Long id) {
-        User user = getUserById(id);
+        User user = loadUserById(id);
         userRepository.delete(user);
+        userCache.invalidate(id);
     }
     
     /**
@@ -137,4 +191,22 @@ public class UserService {
     public boolean existsByUsername(String username) {
         return userRepository.findByUsername(username).isPresent();
     }
-} 
\ No newline at end of file
+    
+    /**
+     * Run password hashing on the password hashing executor. Callers return the
+     * future to Spring MVC, so no servlet thread waits for BCrypt. When the queue
+     * is full the call fails at once with 503 instead of queueing.
+     */
+    private <T> CompletableFuture<T> hashOffRequestThread(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, passwordHashingExecutor);
+        } catch (RejectedExecutionException e) {
+            throw new ServiceUnavailableException("Too many concurrent logins, please retry shortly", e);
+        }
+    }
+    
+    private User loadUserById(Long id) {
+        return userRepository.findById(id)
+            .orElseThrow(() -> new ResourceNotFoundException("User not found with id: " + id));
+    }
+}
@@ -0,0 +1,336 @@
+package io.github.acosentini.dms.storage;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Streaming AES-GCM encryption of stored content.
+ *
+ * An encrypted object is a 32-byte header followed by the plaintext split into
+ * chunks of a fixed size, each encrypted and authenticated on its own:
+ * <pre>
+ *   header:  "DMSE" | version (1) | chunk size (4, big-endian) | salt (16) | nonce prefix (7)
+ *   chunk i: AES-GCM(plaintext[i * chunkSize .. (i + 1) * chunkSize]) | tag (16)
+ * </pre>
+ * Every object is encrypted with its own key, derived from the content key and the
+ * object's random salt with HKDF-SHA256, so nonces only have to be unique within
+ * one object and the number of objects under one content key is not limited by
+ * the chance of a nonce collision. The 12-byte nonce of chunk i is the object's
+ * random nonce prefix, i as a 4-byte counter and a byte marking the final chunk,
+ * and the header is the additional authenticated data of every chunk. Chunks
+ * therefore cannot be reordered, moved between objects or cut off at the end
+ * without failing authentication, while any chunk can still be decrypted on its
+ * own, which is what makes range reads cheap. An empty plaintext is stored as a
+ * single empty final chunk.
+ *
+ * Objects written before per-object keys have a version 1 header of 16 bytes
+ * without the salt, and their chunks are encrypted with the content key itself.
+ * They are still read, but no longer written.
+ *
+ * Only one chunk is buffered at a time, so memory use does not depend on the size
+ * of the content.
+ */
+public class ContentCipher {
+
+    /**
+     * The number of bytes at the start of an object that hold its header, whichever its version
+     */
+    static final int HEADER_LENGTH = 32;
+
+    private static final byte[] MAGIC = {'D', 'M', 'S', 'E'};
+    private static final byte VERSION = 2;
+    private static final byte VERSION_1 = 1;
+    private static final int VERSION_1_HEADER_LENGTH = 16;
+    private static final int SALT_OFFSET = 9;
+    private static final int SALT_LENGTH = 16;
+    private static final int NONCE_PREFIX_LENGTH = 7;
+    private static final byte[] KEY_INFO = "dms-content-object-key".getBytes(StandardCharsets.US_ASCII);
+    private static final String KEY_DERIVATION_MAC = "HmacSHA256";
+    private static final int TAG_LENGTH = 16;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private final SecretKey key;
+    private final int chunkSize;
+    private final SecureRandom random = new SecureRandom();
+
+    public ContentCipher(SecretKey key, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.key = key;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Encrypt a stream. The returned stream yields the header and the encrypted chunks.
+     *
+     * @param plaintext The content to encrypt; closed with the returned stream
+     * @return The encrypted content
+     */
+    public InputStream encrypt(InputStream plaintext) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        System.arraycopy(MAGIC, 0, header, 0, MAGIC.length);
+        header[4] = VERSION;
+        ByteBuffer.wrap(header, 5, 4).putInt(chunkSize);
+        byte[] saltAndNoncePrefix = new byte[SALT_LENGTH + NONCE_PREFIX_LENGTH];
+        random.nextBytes(saltAndNoncePrefix);
+        System.arraycopy(saltAndNoncePrefix, 0, header, SALT_OFFSET, saltAndNoncePrefix.length);
+
+        return new ChunkInputStream(plaintext, newHeader(header), Cipher.ENCRYPT_MODE, 0);
+    }
+
+    /**
+     * Parse the header of an object
+     *
+     * @param bytes The first {@link #HEADER_LENGTH} bytes of the object, or fewer if it is
+     *              shorter; a version 1 header may be followed by the first chunk
+     * @return The header, or null if the object was not written by this class
+     */
+    Header parseHeader(byte[] bytes) throws IOException {
+        if (bytes.length < VERSION_1_HEADER_LENGTH
+                || !Arrays.equals(bytes, 0, MAGIC.length, MAGIC, 0, MAGIC.length)
+                || ByteBuffer.wrap(bytes, 5, 4).getInt() <= 0) {
+            return null;
+        }
+        if (bytes[4] == VERSION_1) {
+            return new Header(Arrays.copyOf(bytes, VERSION_1_HEADER_LENGTH), key);
+        }
+        if (bytes[4] == VERSION && bytes.length >= HEADER_LENGTH) {
+            return newHeader(Arrays.copyOf(bytes, HEADER_LENGTH));
+        }
+        return null;
+    }
+
+    /**
+     * Decrypt a run of consecutive chunks
+     *
+     * @param chunks The encrypted chunks, starting at a chunk boundary; should extend
+     *               at least one byte past the last chunk needed unless it reaches the
+     *               end of the object, so that the final chunk can be recognised
+     * @param header The object's header
+     * @param firstChunk The index of the first chunk in the stream
+     * @return The plaintext of the chunks
+     */
+    InputStream decrypt(InputStream chunks, Header header, long firstChunk) throws IOException {
+        return new ChunkInputStream(chunks, header, Cipher.DECRYPT_MODE, firstChunk);
+    }
+
+    /**
+     * @return The size of the encrypted object for a plaintext of the given length
+     */
+    long encryptedLength(long plaintextLength) {
+        long chunkCount = Math.max(1, (plaintextLength + chunkSize - 1) / chunkSize);
+        return HEADER_LENGTH + plaintextLength + chunkCount * TAG_LENGTH;
+    }
+
+    /**
+     * @return The length of the plaintext in an encrypted object of the given size
+     */
+    static long plaintextLength(Header header, long encryptedLength) {
+        long body = encryptedLength - header.bytes.length;
+        long encryptedChunkSize = (long) header.chunkSize + TAG_LENGTH;
+        long chunkCount = Math.max(1, (body + encryptedChunkSize - 1) / encryptedChunkSize);
+        return Math.max(0, body - chunkCount * TAG_LENGTH);
+    }
+
+    /**
+     * @return The offset of a chunk within an encrypted object
+     */
+    static long chunkOffset(Header header, long chunkIndex) {
+        return header.bytes.length + chunkIndex * ((long) header.chunkSize + TAG_LENGTH);
+    }
+
+    /**
+     * A version 2 header with the object key derived from its salt
+     */
+    private Header newHeader(byte[] bytes) throws IOException {
+        return new Header(bytes, deriveKey(Arrays.copyOfRange(bytes, SALT_OFFSET, SALT_OFFSET + SALT_LENGTH)));
+    }
+
+    /**
+     * HKDF-SHA256 (RFC 5869) of the content key with the object's salt, giving a
+     * key of the content key's length
+     */
+    private SecretKey deriveKey(byte[] salt) throws IOException {
+        byte[] contentKey = key.getEncoded();
+        try {
+            Mac mac = Mac.getInstance(KEY_DERIVATION_MAC);
+            mac.init(new SecretKeySpec(salt, KEY_DERIVATION_MAC));
+            byte[] pseudoRandomKey = mac.doFinal(contentKey);
+
+            mac.init(new SecretKeySpec(pseudoRandomKey, KEY_DERIVATION_MAC));
+            mac.update(KEY_INFO);
+            mac.update((byte) 1);
+            return new SecretKeySpec(Arrays.copyOf(mac.doFinal(), contentKey.length), key.getAlgorithm());
+        } catch (GeneralSecurityException ex) {
+            throw new IOException(KEY_DERIVATION_MAC + " is not available", ex);
+        }
+    }
+
+    private Cipher newCipher() throws IOException {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException ex) {
+            throw new IOException(TRANSFORMATION + " is not available", ex);
+        }
+    }
+
+    private static GCMParameterSpec chunkParameters(Header header, long chunkIndex, boolean last) throws IOException {
+        if (chunkIndex > 0xFFFFFFFFL) {
+            throw new IOException("Too many chunks");
+        }
+        byte[] nonce = new byte[12];
+        System.arraycopy(header.bytes, header.bytes.length - NONCE_PREFIX_LENGTH, nonce, 0, NONCE_PREFIX_LENGTH);
+        ByteBuffer.wrap(nonce, NONCE_PREFIX_LENGTH, 4).putInt((int) chunkIndex);
+        nonce[11] = (byte) (last ? 1 : 0);
+        return new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+    }
+
+    static final class Header {
+
+        private final byte[] bytes;
+        private final int chunkSize;
+        private final SecretKey key;
+
+        private Header(byte[] bytes, SecretKey key) {
+            this.bytes = bytes;
+            this.chunkSize = ByteBuffer.wrap(bytes, 5, 4).getInt();
+            this.key = key;
+        }
+
+        int getChunkSize() {
+            return chunkSize;
+        }
+
+        /**
+         * @return The length of the header, which depends on its version
+         */
+        int getLength() {
+            return bytes.length;
+        }
+    }
+
+    /**
+     * Encrypts or decrypts one chunk at a time. Whether a chunk is the last one is
+     * known by looking at the byte after it, which is carried over into the next chunk.
+     */
+    private final class ChunkInputStream extends InputStream {
+
+        private final InputStream in;
+        private final Header header;
+        private final int mode;
+        private final Cipher cipher;
+        private final byte[] input;
+        private final byte[] output;
+        private long chunkIndex;
+        private int position;
+        private int limit;
+        private int carry = -1;
+        private boolean finished;
+
+        ChunkInputStream(InputStream in, Header header, int mode, long firstChunk) throws IOException {
+            this.in = in;
+            this.header = header;
+            this.mode = mode;
+            this.cipher = newCipher();
+            this.chunkIndex = firstChunk;
+
+            int encryptedChunkSize = header.chunkSize + TAG_LENGTH;
+            this.input = new byte[mode == Cipher.ENCRYPT_MODE ? header.chunkSize : encryptedChunkSize];
+            this.output = new byte[Math.max(mode == Cipher.ENCRYPT_MODE ? encryptedChunkSize : header.chunkSize,
+                header.bytes.length)];
+
+            if (mode == Cipher.ENCRYPT_MODE) {
+                // The encrypted object starts with its header
+                System.arraycopy(header.bytes, 0, output, 0, header.bytes.length);
+                limit = header.bytes.length;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (position == limit) {
+                if (!nextChunk()) {
+                    return -1;
+                }
+            }
+            return output[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == limit) {
+                if (!nextChunk()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(output, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private boolean nextChunk() throws IOException {
+            if (finished) {
+                return false;
+            }
+
+            int length = 0;
+            if (carry >= 0) {
+                input[0] = (byte) carry;
+                length = 1;
+                carry = -1;
+            }
+            length += in.readNBytes(input, length, input.length - length);
+
+            boolean last = length < input.length;
+            if (!last) {
+                carry = in.read();
+                last = carry < 0;
+            }
+
+            if (mode == Cipher.DECRYPT_MODE && length < TAG_LENGTH) {
+                throw new IOException("Encrypted content is truncated at chunk " + chunkIndex);
+            }
+
+            try {
+                cipher.init(mode, header.key, chunkParameters(header, chunkIndex, last));
+                cipher.updateAAD(header.bytes);
+                limit = cipher.doFinal(input, 0, length, output, 0);
+            } catch (AEADBadTagException ex) {
+                throw new IOException("Encrypted content failed authentication at chunk " + chunkIndex, ex);
+            } catch (GeneralSecurityException ex) {
+                throw new IOException("Could not process chunk " + chunkIndex, ex);
+            }
+
+            position = 0;
+            chunkIndex++;
+            finished = last;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package io.github.acosentini.dms.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Encrypts object content at rest with {@link ContentCipher} before handing it to
+ * another backend, and decrypts it on the way out. Sizes and ranges seen by callers
+ * are those of the plaintext; a range read fetches and decrypts only the chunks
+ * that overlap it.
+ *
+ * Uploads are encrypted while they are staged, see {@link #stage}, so plaintext
+ * never reaches the disk and {@link #putFile} hands the staged file over as it is.
+ *
+ * Objects stored before encryption was enabled are recognised by their missing
+ * header and passed through unchanged, as are local files of those objects for
+ * sendfile. Encrypted objects have no local path, as their bytes cannot be sent
+ * as they are.
+ */
+public class EncryptedStorageBackend implements StorageBackend, Closeable {
+
+    private final StorageBackend delegate;
+    private final ContentCipher contentCipher;
+
+    public EncryptedStorageBackend(StorageBackend delegate, ContentCipher contentCipher) {
+        this.delegate = delegate;
+        this.contentCipher = contentCipher;
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public StorageObject put(String key, InputStream content, long length) throws IOException {
+        long encryptedLength = length >= 0 ? contentCipher.encryptedLength(length) : -1;
+        try (InputStream encrypted = contentCipher.encrypt(content)) {
+            StorageObject object = delegate.put(key, encrypted, encryptedLength);
+            return new StorageObject(key, length >= 0 ? length : plaintextSize(key, object), object.getLastModified());
+        }
+    }
+
+    @Override
+    public StorageObject putFile(String key, Path source) throws IOException {
+        // Staged through stage(), so the file is already encrypted and is handed over as it is
+        ContentCipher.Header header;
+        try (InputStream in = Files.newInputStream(source)) {
+            header = contentCipher.parseHeader(in.readNBytes(ContentCipher.HEADER_LENGTH));
+        }
+        if (header == null) {
+            throw new IOException("Staged file is not encrypted: " + source.getFileName());
+        }
+        long length = ContentCipher.plaintextLength(header, Files.size(source));
+
+        StorageObject object = delegate.putFile(key, source);
+        return new StorageObject(key, length, object.getLastModified());
+    }
+
+    @Override
+    public InputStream stage(InputStream content) throws IOException {
+        return delegate.stage(contentCipher.encrypt(content));
+    }
+
+    @Override
+    public InputStream readStaged(InputStream staged) throws IOException {
+        return decrypt(delegate.readStaged(staged));
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return decrypt(delegate.get(key));
+    }
+
+    @Override
+    public InputStream getRange(String key, long offset, long length) throws IOException {
+        ContentCipher.Header header = readHeader(key);
+        if (header == null) {
+            return delegate.getRange(key, offset, length);
+        }
+        if (length <= 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        long firstChunk = offset / header.getChunkSize();
+        long lastChunk = (offset + length - 1) / header.getChunkSize();
+        long start = ContentCipher.chunkOffset(header, firstChunk);
+        long end = ContentCipher.chunkOffset(header, lastChunk + 1);
+
+        // One byte past the last chunk tells whether that chunk is the final one
+        InputStream chunks = delegate.getRange(key, start, end - start + 1);
+        InputStream plaintext = contentCipher.decrypt(chunks, header, firstChunk);
+        try {
+            plaintext.skipNBytes(offset - firstChunk * header.getChunkSize());
+        } catch (IOException | RuntimeException ex) {
+            plaintext.close();
+            throw ex;
+        }
+        return new BoundedInputStream(plaintext, length);
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return delegate.delete(key);
+    }
+
+    @Override
+    public Optional<StorageObject> stat(String key) throws IOException {
+        Optional<StorageObject> object = delegate.stat(key);
+        if (object.isEmpty()) {
+            return object;
+        }
+        StorageObject stored = object.get();
+        return Optional.of(new StorageObject(key, plaintextSize(key, stored), stored.getLastModified()));
+    }
+
+    @Override
+    public Optional<Path> getLocalPath(String key) {
+        return delegate.getLocalPath(key).filter(path -> {
+            try (InputStream in = Files.newInputStream(path)) {
+                return contentCipher.parseHeader(in.readNBytes(ContentCipher.HEADER_LENGTH)) == null;
+            } catch (IOException ex) {
+                return false;
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    private InputStream decrypt(InputStream in) throws IOException {
+        try {
+            byte[] head = in.readNBytes(ContentCipher.HEADER_LENGTH);
+            ContentCipher.Header header = contentCipher.parseHeader(head);
+            if (header == null) {
+                // Stored before encryption was enabled
+                return new SequenceInputStream(new ByteArrayInputStream(head), in);
+            }
+            if (header.getLength() < head.length) {
+                // A shorter, older header; the rest is the start of the first chunk
+                in = new SequenceInputStream(
+                    new ByteArrayInputStream(head, header.getLength(), head.length - header.getLength()), in);
+            }
+            return contentCipher.decrypt(in, header, 0);
+        } catch (IOException | RuntimeException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    private long plaintextSize(String key, StorageObject stored) throws IOException {
+        ContentCipher.Header header = readHeader(key);
+        return header != null ? ContentCipher.plaintextLength(header, stored.getSize()) : stored.getSize();
+    }
+
+    private ContentCipher.Header readHeader(String key) throws IOException {
+        try (InputStream in = delegate.getRange(key, 0, ContentCipher.HEADER_LENGTH)) {
+            return contentCipher.parseHeader(in.readNBytes(ContentCipher.HEADER_LENGTH));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package io.github.acosentini.dms.storage;
+
+import io.github.acosentini.dms.exception.FileNotFoundException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps objects on the heap. Meant for tests and benchmarks; content is lost on
+ * restart and bounded only by memory.
+ */
+public class InMemoryStorageBackend implements StorageBackend {
+
+    private final Map<String, Entry> objects = new ConcurrentHashMap<>();
+
+    @Override
+    public String getName() {
+        return "memory";
+    }
+
+    @Override
+    public StorageObject put(String key, InputStream content, long length) throws IOException {
+        Entry entry = new Entry(content.readAllBytes(), Instant.now());
+        objects.put(key, entry);
+        return entry.toStorageObject(key);
+    }
+
+    @Override
+    public StorageObject putFile(String key, Path source) throws IOException {
+        Entry entry = new Entry(Files.readAllBytes(source), Instant.now());
+        objects.put(key, entry);
+        Files.delete(source);
+        return entry.toStorageObject(key);
+    }
+
+    @Override
+    public InputStream get(String key) {
+        return new ByteArrayInputStream(getEntry(key).data);
+    }
+
+    @Override
+    public InputStream getRange(String key, long offset, long length) {
+        byte[] data = getEntry(key).data;
+        int start = (int) Math.min(offset, data.length);
+        int count = (int) Math.min(length, data.length - start);
+        return new ByteArrayInputStream(data, start, count);
+    }
+
+    @Override
+    public boolean delete(String key) {
+        return objects.remove(key) != null;
+    }
+
+    @Override
+    public Optional<StorageObject> stat(String key) {
+        return Optional.ofNullable(objects.get(key)).map(entry -> entry.toStorageObject(key));
+    }
+
+    private Entry getEntry(String key) {
+        Entry entry = objects.get(key);
+        if (entry == null) {
+            throw new FileNotFoundException("File not found: " + key);
+        }
+        return entry;
+    }
+
+    private static class Entry {
+        private final byte[] data;
+        private final Instant lastModified;
+
+        Entry(byte[] data, Instant lastModified) {
+            this.data = data;
+            this.lastModified = lastModified;
+        }
+
+        StorageObject toStorageObject(String key) {
+            return new StorageObject(key, data.length, lastModified);
+        }
+    }
+}
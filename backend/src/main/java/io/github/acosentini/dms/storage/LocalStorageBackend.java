@@ -0,0 +1,126 @@
+package io.github.acosentini.dms.storage;
+
+import io.github.acosentini.dms.exception.FileNotFoundException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+
+/**
+ * Stores objects as files under a root directory, in the fan-out of a
+ * {@link StorageLayout}. Objects written before the upload directory was sharded
+ * are also found at the top level until {@link StorageLayoutMigrator} moves them.
+ */
+public class LocalStorageBackend implements StorageBackend {
+
+    private final Path root;
+    private final StorageLayout storageLayout;
+
+    public LocalStorageBackend(Path root, StorageLayout storageLayout) {
+        this.root = root;
+        this.storageLayout = storageLayout;
+    }
+
+    @Override
+    public String getName() {
+        return "local";
+    }
+
+    @Override
+    public StorageObject put(String key, InputStream content, long length) throws IOException {
+        Path target = storageLayout.resolve(root, checkKey(key));
+        Files.createDirectories(target.getParent());
+        Files.copy(content, target, StandardCopyOption.REPLACE_EXISTING);
+        return toStorageObject(key, target);
+    }
+
+    @Override
+    public StorageObject putFile(String key, Path source) throws IOException {
+        Path target = storageLayout.resolve(root, checkKey(key));
+        Files.createDirectories(target.getParent());
+        // The staging area is under the same root, so this is a rename
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        return toStorageObject(key, target);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        try {
+            return Files.newInputStream(resolve(key));
+        } catch (NoSuchFileException ex) {
+            throw new FileNotFoundException("File not found: " + key, ex);
+        }
+    }
+
+    @Override
+    public InputStream getRange(String key, long offset, long length) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(resolve(key), StandardOpenOption.READ);
+        } catch (NoSuchFileException ex) {
+            throw new FileNotFoundException("File not found: " + key, ex);
+        }
+        channel.position(offset);
+        return new BoundedInputStream(Channels.newInputStream(channel), length);
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        // Resolve twice in case the layout migration moved the file in between
+        return Files.deleteIfExists(resolve(key)) || Files.deleteIfExists(resolve(key));
+    }
+
+    @Override
+    public Optional<StorageObject> stat(String key) throws IOException {
+        try {
+            return Optional.of(toStorageObject(key, resolve(key)));
+        } catch (NoSuchFileException ex) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Optional<Path> getLocalPath(String key) {
+        Path path = resolve(key);
+        return Files.isRegularFile(path) ? Optional.of(path) : Optional.empty();
+    }
+
+    /**
+     * Find a file in the sharded layout, falling back to the flat layout for files
+     * the migration has not moved yet
+     */
+    private Path resolve(String key) {
+        Path shardedPath = storageLayout.resolve(root, checkKey(key));
+        if (Files.exists(shardedPath)) {
+            return shardedPath;
+        }
+
+        Path flatPath = root.resolve(key);
+        if (Files.exists(flatPath)) {
+            return flatPath;
+        }
+
+        // The migration may have moved the file between the two checks
+        return shardedPath;
+    }
+
+    private String checkKey(String key) {
+        if (key.isEmpty() || key.startsWith(".") || key.contains("/") || key.contains("\\")) {
+            throw new FileNotFoundException("File not found: " + key);
+        }
+        return key;
+    }
+
+    private StorageObject toStorageObject(String key, Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return new StorageObject(key, attributes.size(), attributes.lastModifiedTime().toInstant());
+    }
+}
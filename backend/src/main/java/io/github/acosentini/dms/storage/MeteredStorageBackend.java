@@ -0,0 +1,199 @@
+package io.github.acosentini.dms.storage;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records latency and transferred bytes of every operation on a backend.
+ *
+ * Meters, tagged with the backend name and operation:
+ * <ul>
+ *   <li>{@code dms.storage.operation} - operation latency, also tagged with the outcome.
+ *       For reads this runs from opening the object until its stream is closed, so it
+ *       includes the transfer; a read that fails midway counts as an error.</li>
+ *   <li>{@code dms.storage.bytes} - bytes written per put and read per get; divided by
+ *       the operation time this gives throughput.</li>
+ * </ul>
+ */
+public class MeteredStorageBackend implements StorageBackend, Closeable {
+
+    private final StorageBackend delegate;
+    private final MeterRegistry meterRegistry;
+
+    public MeteredStorageBackend(StorageBackend delegate, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public StorageObject put(String key, InputStream content, long length) throws IOException {
+        StorageObject object = record("put", () -> delegate.put(key, content, length));
+        bytes("put").record(object.getSize());
+        return object;
+    }
+
+    @Override
+    public StorageObject putFile(String key, Path source) throws IOException {
+        StorageObject object = record("put", () -> delegate.putFile(key, source));
+        bytes("put").record(object.getSize());
+        return object;
+    }
+
+    @Override
+    public InputStream stage(InputStream content) throws IOException {
+        return delegate.stage(content);
+    }
+
+    @Override
+    public InputStream readStaged(InputStream staged) throws IOException {
+        return delegate.readStaged(staged);
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        return recordRead("get", () -> delegate.get(key));
+    }
+
+    @Override
+    public InputStream getRange(String key, long offset, long length) throws IOException {
+        return recordRead("get_range", () -> delegate.getRange(key, offset, length));
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return record("delete", () -> delegate.delete(key));
+    }
+
+    @Override
+    public Optional<StorageObject> stat(String key) throws IOException {
+        return record("stat", () -> delegate.stat(key));
+    }
+
+    @Override
+    public Optional<Path> getLocalPath(String key) {
+        return delegate.getLocalPath(key);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    private <T> T record(String operation, StorageCall<T> call) throws IOException {
+        long start = System.nanoTime();
+        String outcome = "success";
+        try {
+            return call.execute();
+        } catch (IOException | RuntimeException ex) {
+            outcome = "error";
+            throw ex;
+        } finally {
+            timer(operation, outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private InputStream recordRead(String operation, StorageCall<InputStream> open) throws IOException {
+        long start = System.nanoTime();
+        InputStream in;
+        try {
+            in = open.execute();
+        } catch (IOException | RuntimeException ex) {
+            timer(operation, "error").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw ex;
+        }
+        return new MeteredInputStream(in, operation, start);
+    }
+
+    private Timer timer(String operation, String outcome) {
+        return Timer.builder("dms.storage.operation")
+            .tag("backend", delegate.getName())
+            .tag("operation", operation)
+            .tag("outcome", outcome)
+            .register(meterRegistry);
+    }
+
+    private DistributionSummary bytes(String operation) {
+        return DistributionSummary.builder("dms.storage.bytes")
+            .baseUnit("bytes")
+            .tag("backend", delegate.getName())
+            .tag("operation", operation)
+            .register(meterRegistry);
+    }
+
+    @FunctionalInterface
+    private interface StorageCall<T> {
+        T execute() throws IOException;
+    }
+
+    /**
+     * Reports the duration of a read and the bytes read when the stream is closed
+     */
+    private class MeteredInputStream extends FilterInputStream {
+
+        private final String operation;
+        private final long start;
+        private long count;
+        private boolean failed;
+        private boolean closed;
+
+        MeteredInputStream(InputStream in, String operation, long start) {
+            super(in);
+            this.operation = operation;
+            this.start = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int b = super.read();
+                if (b >= 0) {
+                    count++;
+                }
+                return b;
+            } catch (IOException | RuntimeException ex) {
+                failed = true;
+                throw ex;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    count += n;
+                }
+                return n;
+            } catch (IOException | RuntimeException ex) {
+                failed = true;
+                throw ex;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                timer(operation, failed ? "error" : "success").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                bytes("get").record(count);
+            }
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package io.github.acosentini.dms.storage;
+
+import io.github.acosentini.dms.exception.FileNotFoundException;
+
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Optional;
+
+/**
+ * Stores objects in an S3-compatible bucket. Works against AWS S3 as well as
+ * self-hosted stand-ins such as MinIO (set an endpoint and path-style access).
+ */
+public class S3StorageBackend implements StorageBackend, Closeable {
+
+    private final S3Client s3;
+    private final String bucket;
+    private final String keyPrefix;
+
+    public S3StorageBackend(S3Client s3, String bucket, String keyPrefix) {
+        this.s3 = s3;
+        this.bucket = bucket;
+        this.keyPrefix = keyPrefix != null ? keyPrefix : "";
+    }
+
+    @Override
+    public String getName() {
+        return "s3";
+    }
+
+    @Override
+    public StorageObject put(String key, InputStream content, long length) throws IOException {
+        if (length < 0) {
+            // S3 needs the length up front; spool streams of unknown length
+            Path spool = Files.createTempFile("dms-s3-", ".tmp");
+            try {
+                Files.copy(content, spool, StandardCopyOption.REPLACE_EXISTING);
+                return putFile(key, spool);
+            } finally {
+                Files.deleteIfExists(spool);
+            }
+        }
+
+        try {
+            s3.putObject(putRequest(key), RequestBody.fromInputStream(content, length));
+        } catch (S3Exception ex) {
+            throw new IOException("Could not store " + key + " in bucket " + bucket, ex);
+        }
+        return new StorageObject(key, length, Instant.now());
+    }
+
+    @Override
+    public StorageObject putFile(String key, Path source) throws IOException {
+        long size = Files.size(source);
+        try {
+            s3.putObject(putRequest(key), RequestBody.fromFile(source));
+        } catch (S3Exception ex) {
+            throw new IOException("Could not store " + key + " in bucket " + bucket, ex);
+        }
+        Files.deleteIfExists(source);
+        return new StorageObject(key, size, Instant.now());
+    }
+
+    @Override
+    public InputStream get(String key) throws IOException {
+        try {
+            return s3.getObject(GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(objectKey(key))
+                .build());
+        } catch (NoSuchKeyException ex) {
+            throw new FileNotFoundException("File not found: " + key, ex);
+        } catch (S3Exception ex) {
+            throw new IOException("Could not read " + key + " from bucket " + bucket, ex);
+        }
+    }
+
+    @Override
+    public InputStream getRange(String key, long offset, long length) throws IOException {
+        if (length <= 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        try {
+            return s3.getObject(GetObjectRequest.builder()
+                .bucket(bucket)
+                .key(objectKey(key))
+                .range("bytes=" + offset + "-" + (offset + length - 1))
+                .build());
+        } catch (NoSuchKeyException ex) {
+            throw new FileNotFoundException("File not found: " + key, ex);
+        } catch (S3Exception ex) {
+            throw new IOException("Could not read " + key + " from bucket " + bucket, ex);
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        try {
+            // S3 deletes are idempotent and don't report whether the object existed
+            s3.deleteObject(DeleteObjectRequest.builder()
+                .bucket(bucket)
+                .key(objectKey(key))
+                .build());
+            return true;
+        } catch (S3Exception ex) {
+            throw new IOException("Could not delete " + key + " from bucket " + bucket, ex);
+        }
+    }
+
+    @Override
+    public Optional<StorageObject> stat(String key) throws IOException {
+        try {
+            HeadObjectResponse head = s3.headObject(HeadObjectRequest.builder()
+                .bucket(bucket)
+                .key(objectKey(key))
+                .build());
+            return Optional.of(new StorageObject(key, head.contentLength(), head.lastModified()));
+        } catch (NoSuchKeyException ex) {
+            return Optional.empty();
+        } catch (S3Exception ex) {
+            if (ex.statusCode() == 404) {
+                return Optional.empty();
+            }
+            throw new IOException("Could not stat " + key + " in bucket " + bucket, ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        s3.close();
+    }
+
+    private PutObjectRequest putRequest(String key) {
+        return PutObjectRequest.builder()
+            .bucket(bucket)
+            .key(objectKey(key))
+            .build();
+    }
+
+    private String objectKey(String key) {
+        return keyPrefix + key;
+    }
+}
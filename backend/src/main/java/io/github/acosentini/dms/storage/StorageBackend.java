@@ -0,0 +1,108 @@
+package io.github.acosentini.dms.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Where stored file content lives. Keys are the names {@code FileStorageService}
+ * assigns (content hashes, or UUIDs for older files); how a backend lays them out
+ * is up to the backend.
+ *
+ * Reading a key that does not exist throws
+ * {@link io.github.acosentini.dms.exception.FileNotFoundException}.
+ */
+public interface StorageBackend {
+
+    /**
+     * @return A short name for logs and metrics, e.g. "local"
+     */
+    String getName();
+
+    /**
+     * Write an object from a stream, replacing any existing object with the key
+     *
+     * @param key The object key
+     * @param content The object content
+     * @param length The content length, or -1 if unknown
+     * @return The stored object
+     */
+    StorageObject put(String key, InputStream content, long length) throws IOException;
+
+    /**
+     * Take over a local file as an object. The source file no longer exists
+     * afterwards; backends on the same filesystem rename it instead of copying.
+     *
+     * @param key The object key
+     * @param source A file in the local staging area, written through {@link #stage}
+     * @return The stored object
+     */
+    StorageObject putFile(String key, Path source) throws IOException;
+
+    /**
+     * Convert content on its way into the local staging area into the form this
+     * backend stores, so that staged files never hold more than the backend would
+     * and {@link #putFile} only has to move them
+     *
+     * @param content The content
+     * @return The content as it is to be staged; closing it closes the content
+     */
+    default InputStream stage(InputStream content) throws IOException {
+        return content;
+    }
+
+    /**
+     * Read back a file written through {@link #stage}
+     *
+     * @param staged The staged bytes
+     * @return The original content; closing it closes the staged stream
+     */
+    default InputStream readStaged(InputStream staged) throws IOException {
+        return staged;
+    }
+
+    /**
+     * Open an object for reading
+     *
+     * @param key The object key
+     * @return The object content; the caller closes it
+     */
+    InputStream get(String key) throws IOException;
+
+    /**
+     * Open part of an object for reading
+     *
+     * @param key The object key
+     * @param offset The first byte to read
+     * @param length The number of bytes to read
+     * @return The requested bytes; the caller closes the stream
+     */
+    InputStream getRange(String key, long offset, long length) throws IOException;
+
+    /**
+     * Delete an object
+     *
+     * @param key The object key
+     * @return true if the object existed
+     */
+    boolean delete(String key) throws IOException;
+
+    /**
+     * Look up an object's metadata
+     *
+     * @param key The object key
+     * @return The object, or empty if it does not exist
+     */
+    Optional<StorageObject> stat(String key) throws IOException;
+
+    /**
+     * Expose an object as a local file so that it can be sent with sendfile
+     *
+     * @param key The object key
+     * @return The file, or empty if the backend does not keep objects on local disk
+     */
+    default Optional<Path> getLocalPath(String key) {
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,49 @@
+package io.github.acosentini.dms.storage;
+
+import io.github.acosentini.dms.config.FileStorageProperties;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+
+/**
+ * Maps stored file names onto a fan-out of nested directories named after the
+ * leading characters of the file name, e.g. {@code 3f/2a/3f2a...}. Stored names
+ * are hex hashes or UUIDs, so the prefixes are evenly spread.
+ */
+@Component
+public class StorageLayout {
+
+    private final int levels;
+    private final int width;
+
+    @Autowired
+    public StorageLayout(FileStorageProperties fileStorageProperties) {
+        this.levels = fileStorageProperties.getShardLevels();
+        this.width = fileStorageProperties.getShardWidth();
+        
+        if (levels < 0 || width < 1) {
+            throw new IllegalArgumentException("Invalid storage layout: " + levels + " levels of width " + width);
+        }
+    }
+
+    /**
+     * Resolve the location of a file name under a root directory
+     * 
+     * @param root The storage root
+     * @param fileName The stored file name
+     * @return The sharded path of the file
+     */
+    public Path resolve(Path root, String fileName) {
+        Path dir = root;
+        for (int level = 0; level < levels; level++) {
+            int start = level * width;
+            if (start + width > fileName.length()) {
+                break;
+            }
+            dir = dir.resolve(fileName.substring(start, start + width).toLowerCase());
+        }
+        return dir.resolve(fileName);
+    }
+}
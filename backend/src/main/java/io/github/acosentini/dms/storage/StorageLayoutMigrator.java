@@ -0,0 +1,125 @@
+package io.github.acosentini.dms.storage;
+
+import io.github.acosentini.dms.config.FileStorageProperties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.Stream;
+
+/**
+ * Moves stored files into the directory layout configured by {@link StorageLayout},
+ * e.g. the flat files written before the upload directory was sharded.
+ *
+ * Runs in the background after startup when {@code file.layout-migration.enabled}
+ * is set and the local storage backend is in use. Every move is an atomic rename
+ * and {@link LocalStorageBackend} looks in both the sharded and the flat location, so the application keeps serving files
+ * while the migration runs. It is safe to interrupt and restart.
+ */
+@Component
+public class StorageLayoutMigrator {
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageLayoutMigrator.class);
+
+    private final FileStorageProperties fileStorageProperties;
+    private final StorageLayout storageLayout;
+    private final Path fileStorageLocation;
+
+    @Autowired
+    public StorageLayoutMigrator(FileStorageProperties fileStorageProperties, StorageLayout storageLayout) {
+        this.fileStorageProperties = fileStorageProperties;
+        this.storageLayout = storageLayout;
+        this.fileStorageLocation = Paths.get(fileStorageProperties.getUploadDir())
+                .toAbsolutePath().normalize();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startMigration() {
+        if (!fileStorageProperties.getLayoutMigration().isEnabled()) {
+            return;
+        }
+        if (!"local".equals(fileStorageProperties.getStorage().getType())) {
+            logger.warn("Storage layout migration only applies to the local storage backend; skipping");
+            return;
+        }
+
+        Thread thread = new Thread(this::migrate, "storage-layout-migration");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Move every misplaced file into its place in the configured layout
+     *
+     * @return The number of files moved
+     */
+    public long migrate() {
+        int batchSize = fileStorageProperties.getLayoutMigration().getBatchSize();
+        long pauseMillis = fileStorageProperties.getLayoutMigration().getBatchPause().toMillis();
+        long moved = 0;
+
+        logger.info("Starting storage layout migration in {}", fileStorageLocation);
+
+        try (Stream<Path> files = Files.walk(fileStorageLocation)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!Files.isRegularFile(file) || isInternal(file)) {
+                    continue;
+                }
+
+                if (moveIntoLayout(file)) {
+                    moved++;
+                    if (moved % batchSize == 0) {
+                        logger.info("Storage layout migration moved {} files so far", moved);
+                        Thread.sleep(pauseMillis);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            logger.error("Storage layout migration stopped after {} files", moved, ex);
+            return moved;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            logger.warn("Storage layout migration interrupted after {} files", moved);
+            return moved;
+        }
+
+        logger.info("Storage layout migration finished, moved {} files", moved);
+        return moved;
+    }
+
+    private boolean moveIntoLayout(Path file) throws IOException {
+        Path target = storageLayout.resolve(fileStorageLocation, file.getFileName().toString());
+        if (target.equals(file)) {
+            return false;
+        }
+
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException ex) {
+            // Names are content hashes or UUIDs, so an existing target holds the same content
+            Files.deleteIfExists(file);
+        } catch (NoSuchFileException ex) {
+            // Deleted while we were walking
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isInternal(Path file) {
+        // Temporary uploads and upload sessions live in dot-directories
+        Path relative = fileStorageLocation.relativize(file);
+        return relative.getNameCount() > 1 && relative.getName(0).toString().startsWith(".");
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.acosentini.dms.storage;
+
+import java.time.Instant;
+
+/**
+ * Metadata of a stored object
+ */
+public class StorageObject {
+
+    private final String key;
+    private final long size;
+    private final Instant lastModified;
+
+    public StorageObject(String key, long size, Instant lastModified) {
+        this.key = key;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public Instant getLastModified() {
+        return lastModified;
+    }
+}
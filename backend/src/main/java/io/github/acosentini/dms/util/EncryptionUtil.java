@@ -3,18 +3,35 @@ package io.github.acosentini.dms.util;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
 import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 
 @Component
 public class EncryptionUtil {
 
+    private static final String TRANSFORMATION = "AES";
+
     @Value("${encryption.secret:defaultSecretKey}")
     private String secret;
 
+    private Key key;
+
+    // Cipher instances are not thread-safe, and looking one up from the provider on
+    // every call shows up under load, so each thread keeps one per direction
+    private final ThreadLocal<Cipher> encryptCipher = ThreadLocal.withInitial(() -> newCipher(Cipher.ENCRYPT_MODE));
+    private final ThreadLocal<Cipher> decryptCipher = ThreadLocal.withInitial(() -> newCipher(Cipher.DECRYPT_MODE));
+
+    @PostConstruct
+    public void init() {
+        this.key = generateKey();
+    }
+
     /**
      * Encrypts a string using AES encryption
      * 
@@ -23,10 +40,7 @@ public class EncryptionUtil {
      */
     public String encrypt(String data) {
         try {
-            Key key = generateKey();
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.ENCRYPT_MODE, key);
-            byte[] encVal = cipher.doFinal(data.getBytes(StandardCharsets.UTF_8));
+            byte[] encVal = encryptCipher.get().doFinal(data.getBytes(StandardCharsets.UTF_8));
             return Base64.getEncoder().encodeToString(encVal);
         } catch (Exception e) {
             throw new RuntimeException("Error encrypting data", e);
@@ -41,17 +55,27 @@ public class EncryptionUtil {
      */
     public String decrypt(String encryptedData) {
         try {
-            Key key = generateKey();
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.DECRYPT_MODE, key);
             byte[] decodedValue = Base64.getDecoder().decode(encryptedData);
-            byte[] decValue = cipher.doFinal(decodedValue);
+            byte[] decValue = decryptCipher.get().doFinal(decodedValue);
             return new String(decValue, StandardCharsets.UTF_8);
         } catch (Exception e) {
             throw new RuntimeException("Error decrypting data", e);
         }
     }
 
+    private Cipher newCipher(int mode) {
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            // doFinal resets the cipher to this state, so it is initialised only once
+            cipher.init(mode, key);
+            return cipher;
+        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            throw new IllegalStateException(TRANSFORMATION + " is not available", e);
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not initialise cipher", e);
+        }
+    }
+
     private Key generateKey() {
         // Ensure the key is 16, 24, or 32 bytes (AES-128, AES-192, or AES-256)
         byte[] keyBytes = new byte[16];
@@ -62,4 +86,4 @@ public class EncryptionUtil {
         
         return new SecretKeySpec(keyBytes, "AES");
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,132 @@
+package io.github.acosentini.dms.repository;
+
+import io.github.acosentini.dms.dto.DocumentResponse;
+import io.github.acosentini.dms.model.Document;
+import io.github.acosentini.dms.model.Tag;
+import io.github.acosentini.dms.model.User;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Listings must load a page of documents with their tags in a constant number of
+ * statements, however many documents the page holds
+ */
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+@Testcontainers(disabledWithoutDocker = true)
+class DocumentRepositoryTest {
+
+    private static final int DOCUMENTS = 60;
+
+    @Container
+    static final PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>("postgres:14-alpine");
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", postgres::getJdbcUrl);
+        registry.add("spring.datasource.username", postgres::getUsername);
+        registry.add("spring.datasource.password", postgres::getPassword);
+    }
+
+    @Autowired
+    private DocumentRepository documentRepository;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+
+    private User owner;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        owner = entityManager.persist(new User("owner", "password"));
+        Tag invoices = newTag("invoices");
+        Tag receipts = newTag("receipts");
+
+        ZonedDateTime uploadDate = ZonedDateTime.now(ZoneOffset.UTC);
+        for (int i = 0; i < DOCUMENTS; i++) {
+            Document document = new Document("document-" + i, "path-" + i, "application/pdf", 1024L, owner);
+            document.setUploadDate(uploadDate.minusMinutes(i));
+            document.addTag(invoices);
+            if (i % 2 == 0) {
+                document.addTag(receipts);
+            }
+            entityManager.persist(document);
+        }
+        entityManager.flush();
+        entityManager.clear();
+    }
+
+    @Test
+    void entityPageLoadsTagsInConstantNumberOfStatements() {
+        long smallPage = countStatements(() -> touchTags(documentRepository.findAll(PageRequest.of(0, 10))));
+        long largePage = countStatements(() -> touchTags(documentRepository.findAll(PageRequest.of(0, 50))));
+
+        // Page, count and one batch of tags
+        assertThat(largePage).isEqualTo(smallPage).isLessThanOrEqualTo(3);
+    }
+
+    @Test
+    void summaryPageLoadsTagIdsInConstantNumberOfStatements() {
+        long smallPage = countStatements(() -> loadSummariesWithTagIds(10));
+        long largePage = countStatements(() -> loadSummariesWithTagIds(50));
+
+        // Page, count and the tag links of the whole page
+        assertThat(largePage).isEqualTo(smallPage).isEqualTo(3);
+    }
+
+    private Tag newTag(String name) {
+        Tag tag = new Tag(name);
+        tag.setOwner(owner);
+        return entityManager.persist(tag);
+    }
+
+    private void touchTags(Page<Document> page) {
+        assertThat(page.getContent()).isNotEmpty();
+        page.forEach(document -> assertThat(document.getTags()).isNotEmpty());
+    }
+
+    private void loadSummariesWithTagIds(int size) {
+        Page<DocumentResponse> page = documentRepository.findByOwnerId(owner.getId(), PageRequest.of(0, size));
+        List<Long> ids = page.stream().map(DocumentResponse::getId).collect(Collectors.toList());
+
+        assertThat(documentRepository.findTagLinks(ids)).hasSizeGreaterThanOrEqualTo(size);
+    }
+
+    private long countStatements(Runnable listing) {
+        entityManager.clear();
+        statistics.clear();
+        listing.run();
+        return statistics.getPrepareStatementCount();
+    }
+}
@@ -0,0 +1,104 @@
+package io.github.acosentini.dms.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.SignatureException;
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JwtTokenServiceTest {
+
+    private static final long HOUR = 3_600_000L;
+
+    @Test
+    void signsWithTheConfiguredSecretWhenNoKeysAreListed() {
+        JwtTokenService service = new JwtTokenService(new JwtKeyProperties(), "legacySecret");
+
+        String token = service.sign(claims("alice"), new Date(), expiresIn(HOUR));
+
+        assertThat(keyId(token)).isEqualTo(JwtTokenService.DEFAULT_KEY_ID);
+        assertThat(service.verify(token).getSubject()).isEqualTo("alice");
+    }
+
+    @Test
+    void keepsAcceptingTokensOfThePreviousKeyAfterRotation() {
+        JwtTokenService beforeRotation = service("2024-01", Map.of("2024-01", "firstSecret"));
+        String oldToken = beforeRotation.sign(claims("alice"), new Date(), expiresIn(HOUR));
+
+        Map<String, String> rotated = new LinkedHashMap<>();
+        rotated.put("2024-01", "firstSecret");
+        rotated.put("2024-02", "secondSecret");
+        JwtTokenService afterRotation = service("2024-02", rotated);
+        String newToken = afterRotation.sign(claims("bob"), new Date(), expiresIn(HOUR));
+
+        assertThat(keyId(oldToken)).isEqualTo("2024-01");
+        assertThat(keyId(newToken)).isEqualTo("2024-02");
+        assertThat(afterRotation.verify(oldToken).getSubject()).isEqualTo("alice");
+        assertThat(afterRotation.verify(newToken).getSubject()).isEqualTo("bob");
+    }
+
+    @Test
+    void rejectsTokensOfAKeyThatWasDropped() {
+        String oldToken = service("2024-01", Map.of("2024-01", "firstSecret"))
+            .sign(claims("alice"), new Date(), expiresIn(HOUR));
+
+        JwtTokenService afterCleanup = service("2024-02", Map.of("2024-02", "secondSecret"));
+
+        assertThatThrownBy(() -> afterCleanup.verify(oldToken))
+            .isInstanceOf(SignatureException.class)
+            .hasMessageContaining("Unknown JWT key id: 2024-01");
+    }
+
+    @Test
+    void rejectsTokensSignedWithAnotherSecretUnderAKnownKeyId() {
+        String forged = service("2024-01", Map.of("2024-01", "attackerSecret"))
+            .sign(claims("mallory"), new Date(), expiresIn(HOUR));
+
+        JwtTokenService service = service("2024-01", Map.of("2024-01", "firstSecret"));
+
+        assertThatThrownBy(() -> service.verify(forged)).isInstanceOf(SignatureException.class);
+    }
+
+    @Test
+    void rejectsExpiredTokens() {
+        JwtTokenService service = service("2024-01", Map.of("2024-01", "firstSecret"));
+        String token = service.sign(claims("alice"), new Date(System.currentTimeMillis() - 2 * HOUR), expiresIn(-HOUR));
+
+        assertThatThrownBy(() -> service.verify(token)).isInstanceOf(ExpiredJwtException.class);
+    }
+
+    @Test
+    void failsToStartWhenTheActiveKeyIsNotConfigured() {
+        assertThatThrownBy(() -> service("2024-03", Map.of("2024-01", "firstSecret")))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("2024-03");
+    }
+
+    private static JwtTokenService service(String activeKeyId, Map<String, String> secrets) {
+        JwtKeyProperties properties = new JwtKeyProperties();
+        properties.setActiveKeyId(activeKeyId);
+        properties.setSecrets(new LinkedHashMap<>(secrets));
+        return new JwtTokenService(properties, "unusedSecret");
+    }
+
+    private static Claims claims(String subject) {
+        return Jwts.claims().setSubject(subject);
+    }
+
+    private static Date expiresIn(long millis) {
+        return new Date(System.currentTimeMillis() + millis);
+    }
+
+    private static String keyId(String token) {
+        String header = new String(Base64.getUrlDecoder().decode(token.substring(0, token.indexOf('.'))));
+        return header.replaceAll(".*\"kid\":\"([^\"]*)\".*", "$1");
+    }
+}
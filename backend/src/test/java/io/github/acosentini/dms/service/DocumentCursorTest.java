@@ -0,0 +1,59 @@
+package io.github.acosentini.dms.service;
+
+import io.github.acosentini.dms.dto.DocumentResponse;
+import io.github.acosentini.dms.exception.BadRequestException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DocumentCursorTest {
+
+    @Test
+    void decodesTheSamePosition() {
+        ZonedDateTime uploadDate = ZonedDateTime.of(2024, 3, 1, 9, 30, 15, 123_456_789, ZoneId.of("Europe/Rome"));
+
+        DocumentCursor cursor = DocumentCursor.decode(new DocumentCursor(uploadDate, 42L).encode());
+
+        assertThat(cursor.getUploadDate().toInstant()).isEqualTo(uploadDate.toInstant());
+        assertThat(cursor.getId()).isEqualTo(42L);
+    }
+
+    @Test
+    void startsAfterTheLastDocumentOfAPage() {
+        ZonedDateTime uploadDate = ZonedDateTime.parse("2024-03-01T08:30:15Z");
+        DocumentResponse last = new DocumentResponse(7L, "report.pdf", "application/pdf", uploadDate);
+
+        DocumentCursor cursor = DocumentCursor.decode(DocumentCursor.after(last).encode());
+
+        assertThat(cursor.getUploadDate().toInstant()).isEqualTo(uploadDate.toInstant());
+        assertThat(cursor.getId()).isEqualTo(7L);
+    }
+
+    @Test
+    void encodesToAUrlSafeToken() {
+        DocumentCursor cursor = new DocumentCursor(ZonedDateTime.parse("1999-12-31T23:59:59.999999999Z"), Long.MAX_VALUE);
+
+        assertThat(cursor.encode()).matches("[A-Za-z0-9_-]+");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"", "not a cursor!", "1:1700000000:0", "2:1700000000:0:42", "1:1700000000:0:x",
+        "1:99999999999999999:0:42", "1:1700000000:0:42:1"})
+    void rejectsTokensItDidNotIssue(String value) {
+        String token = value.equals("not a cursor!")
+            ? value
+            : Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+
+        assertThatThrownBy(() -> DocumentCursor.decode(token))
+            .isInstanceOf(BadRequestException.class)
+            .hasMessage("Invalid cursor");
+    }
+}
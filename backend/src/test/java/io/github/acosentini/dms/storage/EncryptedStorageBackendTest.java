@@ -0,0 +1,245 @@
+package io.github.acosentini.dms.storage;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EncryptedStorageBackendTest {
+
+    private static final int CHUNK_SIZE = 64;
+
+    private SecretKey key;
+    private InMemoryStorageBackend delegate;
+    private ContentCipher contentCipher;
+    private EncryptedStorageBackend backend;
+
+    @BeforeEach
+    void setUp() {
+        byte[] keyBytes = new byte[16];
+        new Random(1).nextBytes(keyBytes);
+        key = new SecretKeySpec(keyBytes, "AES");
+        delegate = new InMemoryStorageBackend();
+        contentCipher = new ContentCipher(key, CHUNK_SIZE);
+        backend = new EncryptedStorageBackend(delegate, contentCipher);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 10 * CHUNK_SIZE, 10 * CHUNK_SIZE + 7})
+    void roundTripsContentOfAnyLength(int length) throws IOException {
+        byte[] content = content(length);
+
+        StorageObject object = backend.put("blob", new ByteArrayInputStream(content), length);
+
+        assertThat(object.getSize()).isEqualTo(length);
+        assertThat(read(backend.get("blob"))).isEqualTo(content);
+        assertThat(delegate.stat("blob")).get()
+                .extracting(StorageObject::getSize)
+                .isEqualTo(contentCipher.encryptedLength(length));
+        assertThat(backend.stat("blob")).get().extracting(StorageObject::getSize).isEqualTo((long) length);
+    }
+
+    @Test
+    void storesCiphertextOnly() throws IOException {
+        byte[] content = "a plain and recognisable sentence".getBytes(StandardCharsets.UTF_8);
+
+        backend.put("blob", new ByteArrayInputStream(content), content.length);
+
+        String stored = new String(read(delegate.get("blob")), StandardCharsets.ISO_8859_1);
+        assertThat(stored).startsWith("DMSE").doesNotContain("recognisable");
+    }
+
+    @Test
+    void readsRangesWithinAndAcrossChunks() throws IOException {
+        byte[] content = content(10 * CHUNK_SIZE + 7);
+        backend.put("blob", new ByteArrayInputStream(content), content.length);
+
+        long[][] ranges = {
+            {0, 1}, {0, CHUNK_SIZE}, {5, 10}, {CHUNK_SIZE - 1, 2}, {CHUNK_SIZE, CHUNK_SIZE},
+            {3 * CHUNK_SIZE + 5, 4 * CHUNK_SIZE}, {content.length - 7, 7}, {content.length - 1, 100}, {0, content.length}
+        };
+        for (long[] range : ranges) {
+            int from = (int) range[0];
+            int to = (int) Math.min(content.length, range[0] + range[1]);
+            assertThat(read(backend.getRange("blob", range[0], range[1])))
+                    .as("range %d+%d", range[0], range[1])
+                    .isEqualTo(Arrays.copyOfRange(content, from, to));
+        }
+        assertThat(read(backend.getRange("blob", 10, 0))).isEmpty();
+    }
+
+    @Test
+    void readsObjectsStoredBeforeEncryption() throws IOException {
+        byte[] content = "stored in plain text".getBytes(StandardCharsets.UTF_8);
+        delegate.put("legacy", new ByteArrayInputStream(content), content.length);
+
+        assertThat(read(backend.get("legacy"))).isEqualTo(content);
+        assertThat(read(backend.getRange("legacy", 7, 2))).isEqualTo("in".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void rejectsModifiedChunks() throws IOException {
+        byte[] content = content(3 * CHUNK_SIZE);
+        backend.put("blob", new ByteArrayInputStream(content), content.length);
+        byte[] stored = read(delegate.get("blob"));
+        int secondChunk = (int) ContentCipher.chunkOffset(contentCipher.parseHeader(stored), 1);
+        stored[secondChunk + 3] ^= 1;
+        delegate.put("blob", new ByteArrayInputStream(stored), stored.length);
+
+        assertThatThrownBy(() -> read(backend.get("blob")))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("failed authentication at chunk 1");
+        assertThat(read(backend.getRange("blob", 0, CHUNK_SIZE))).isEqualTo(Arrays.copyOf(content, CHUNK_SIZE));
+        assertThatThrownBy(() -> read(backend.getRange("blob", CHUNK_SIZE, 1)))
+                .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void rejectsTruncatedContent() throws IOException {
+        byte[] content = content(3 * CHUNK_SIZE);
+        backend.put("blob", new ByteArrayInputStream(content), content.length);
+        byte[] stored = read(delegate.get("blob"));
+        byte[] truncated = Arrays.copyOf(stored, (int) ContentCipher.chunkOffset(contentCipher.parseHeader(stored), 2));
+        delegate.put("blob", new ByteArrayInputStream(truncated), truncated.length);
+
+        // The second chunk now looks like the final one, which its nonce says it is not
+        assertThatThrownBy(() -> read(backend.get("blob")))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("failed authentication at chunk 1");
+    }
+
+    @Test
+    void stagesCiphertextAndHandsItOverAsItIs(@TempDir Path stagingDir) throws IOException {
+        byte[] content = "a plain and recognisable sentence, staged".getBytes(StandardCharsets.UTF_8);
+        Path staged = stagingDir.resolve("upload");
+        try (InputStream in = backend.stage(new ByteArrayInputStream(content))) {
+            Files.copy(in, staged);
+        }
+        byte[] stagedBytes = Files.readAllBytes(staged);
+
+        assertThat(new String(stagedBytes, StandardCharsets.ISO_8859_1)).startsWith("DMSE").doesNotContain("recognisable");
+        try (InputStream in = backend.readStaged(Files.newInputStream(staged))) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+
+        StorageObject object = backend.putFile("blob", staged);
+
+        assertThat(object.getSize()).isEqualTo(content.length);
+        assertThat(staged).doesNotExist();
+        assertThat(read(delegate.get("blob"))).isEqualTo(stagedBytes);
+        assertThat(read(backend.get("blob"))).isEqualTo(content);
+    }
+
+    @Test
+    void refusesToStoreAStagedFileThatIsNotEncrypted(@TempDir Path stagingDir) throws IOException {
+        Path staged = Files.writeString(stagingDir.resolve("upload"), "plain text");
+
+        assertThatThrownBy(() -> backend.putFile("blob", staged)).isInstanceOf(IOException.class);
+        assertThat(delegate.stat("blob")).isEmpty();
+    }
+
+    @Test
+    void encryptsTheSameContentDifferentlyEachTime() throws IOException {
+        byte[] content = content(CHUNK_SIZE);
+        backend.put("first", new ByteArrayInputStream(content), content.length);
+        backend.put("second", new ByteArrayInputStream(content), content.length);
+
+        assertThat(read(delegate.get("first"))).isNotEqualTo(read(delegate.get("second")));
+    }
+
+    @Test
+    void encryptsEachObjectWithItsOwnKey() throws Exception {
+        byte[] content = content(CHUNK_SIZE);
+        backend.put("blob", new ByteArrayInputStream(content), content.length);
+        byte[] stored = read(delegate.get("blob"));
+        byte[] header = Arrays.copyOf(stored, ContentCipher.HEADER_LENGTH);
+
+        // The only chunk, under the nonce and associated data it was written with
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, nonce(header, 0, true)));
+        cipher.updateAAD(header);
+
+        assertThatThrownBy(() -> cipher.doFinal(stored, header.length, stored.length - header.length))
+                .isInstanceOf(AEADBadTagException.class);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, CHUNK_SIZE, 3 * CHUNK_SIZE + 5})
+    void readsObjectsEncryptedWithTheContentKey(int length) throws Exception {
+        byte[] content = content(length);
+        byte[] stored = encryptVersion1(content);
+        delegate.put("v1", new ByteArrayInputStream(stored), stored.length);
+
+        assertThat(read(backend.get("v1"))).isEqualTo(content);
+        assertThat(backend.stat("v1")).get().extracting(StorageObject::getSize).isEqualTo((long) length);
+        if (length > 10) {
+            assertThat(read(backend.getRange("v1", 5, length - 10)))
+                    .isEqualTo(Arrays.copyOfRange(content, 5, length - 5));
+        }
+    }
+
+    /**
+     * An object as written before per-object keys: a 16-byte version 1 header and
+     * chunks encrypted with the content key
+     */
+    private byte[] encryptVersion1(byte[] content) throws GeneralSecurityException {
+        byte[] header = new byte[16];
+        ByteBuffer.wrap(header).put("DMSE".getBytes(StandardCharsets.US_ASCII)).put((byte) 1).putInt(CHUNK_SIZE);
+        byte[] noncePrefix = new byte[7];
+        new Random(content.length).nextBytes(noncePrefix);
+        System.arraycopy(noncePrefix, 0, header, 9, noncePrefix.length);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(header);
+        int chunkCount = Math.max(1, (content.length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        for (int i = 0; i < chunkCount; i++) {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, nonce(header, i, i == chunkCount - 1)));
+            cipher.updateAAD(header);
+            int from = i * CHUNK_SIZE;
+            out.writeBytes(cipher.doFinal(content, from, Math.min(CHUNK_SIZE, content.length - from)));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] nonce(byte[] header, int chunkIndex, boolean last) {
+        byte[] nonce = new byte[12];
+        System.arraycopy(header, header.length - 7, nonce, 0, 7);
+        ByteBuffer.wrap(nonce, 7, 4).putInt(chunkIndex);
+        nonce[11] = (byte) (last ? 1 : 0);
+        return nonce;
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+}
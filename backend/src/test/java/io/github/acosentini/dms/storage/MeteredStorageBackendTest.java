@@ -0,0 +1,112 @@
+package io.github.acosentini.dms.storage;
+
+import io.github.acosentini.dms.exception.FileNotFoundException;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MeteredStorageBackendTest {
+
+    private SimpleMeterRegistry registry;
+    private MeteredStorageBackend backend;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        backend = new MeteredStorageBackend(new FailingReadsBackend(), registry);
+    }
+
+    @Test
+    void readIsTimedUntilTheStreamIsClosed() throws IOException {
+        backend.put("blob", new ByteArrayInputStream(new byte[100]), 100);
+
+        InputStream in = backend.get("blob");
+        in.readAllBytes();
+        assertThat(timer("get", "success")).isNull();
+
+        in.close();
+        in.close();
+        assertThat(timer("get", "success").count()).isEqualTo(1);
+        assertThat(bytes("get").totalAmount()).isEqualTo(100);
+    }
+
+    @Test
+    void rangeReadsAreTimedSeparately() throws IOException {
+        backend.put("blob", new ByteArrayInputStream(new byte[100]), 100);
+
+        try (InputStream in = backend.getRange("blob", 10, 20)) {
+            in.readAllBytes();
+        }
+
+        assertThat(timer("get_range", "success").count()).isEqualTo(1);
+        assertThat(timer("get", "success")).isNull();
+        assertThat(bytes("get").totalAmount()).isEqualTo(20);
+    }
+
+    @Test
+    void readFailingMidwayIsAnError() throws IOException {
+        backend.put("broken", new ByteArrayInputStream(new byte[100]), 100);
+
+        try (InputStream in = backend.get("broken")) {
+            assertThatThrownBy(in::readAllBytes).isInstanceOf(IOException.class);
+        }
+
+        assertThat(timer("get", "error").count()).isEqualTo(1);
+        assertThat(timer("get", "success")).isNull();
+    }
+
+    @Test
+    void readOfMissingObjectIsAnError() {
+        assertThatThrownBy(() -> backend.get("missing")).isInstanceOf(FileNotFoundException.class);
+
+        assertThat(timer("get", "error").count()).isEqualTo(1);
+    }
+
+    private Timer timer(String operation, String outcome) {
+        return registry.find("dms.storage.operation")
+            .tag("operation", operation)
+            .tag("outcome", outcome)
+            .timer();
+    }
+
+    private DistributionSummary bytes(String operation) {
+        return registry.find("dms.storage.bytes").tag("operation", operation).summary();
+    }
+
+    /**
+     * Streams of the object "broken" fail after their first byte
+     */
+    private static class FailingReadsBackend extends InMemoryStorageBackend {
+
+        @Override
+        public InputStream get(String key) {
+            InputStream in = super.get(key);
+            if (!"broken".equals(key)) {
+                return in;
+            }
+            return new InputStream() {
+                private boolean first = true;
+
+                @Override
+                public int read() throws IOException {
+                    if (first) {
+                        first = false;
+                        return in.read();
+                    }
+                    throw new IOException("Connection reset");
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package io.github.acosentini.dms.storage;
+
+import io.github.acosentini.dms.exception.FileNotFoundException;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.wait.strategy.Wait;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.CreateBucketRequest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * {@link S3StorageBackend} against MinIO, configured as the application would be
+ * for an S3-compatible service: endpoint override and path-style access
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class S3StorageBackendTest {
+
+    private static final String ACCESS_KEY = "dms-test";
+    private static final String SECRET_KEY = "dms-test-secret";
+    private static final String BUCKET = "dms-documents";
+
+    @Container
+    static final GenericContainer<?> minio = new GenericContainer<>("minio/minio:RELEASE.2022-10-24T18-35-07Z")
+        .withEnv("MINIO_ROOT_USER", ACCESS_KEY)
+        .withEnv("MINIO_ROOT_PASSWORD", SECRET_KEY)
+        .withCommand("server", "/data")
+        .withExposedPorts(9000)
+        .waitingFor(Wait.forHttp("/minio/health/live").forPort(9000));
+
+    private static S3Client s3;
+    private static S3StorageBackend backend;
+
+    @BeforeAll
+    static void createBucket() {
+        s3 = S3Client.builder()
+            .endpointOverride(URI.create("http://" + minio.getHost() + ":" + minio.getMappedPort(9000)))
+            .region(Region.US_EAST_1)
+            .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build())
+            .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(ACCESS_KEY, SECRET_KEY)))
+            .build();
+        s3.createBucket(CreateBucketRequest.builder().bucket(BUCKET).build());
+        backend = new S3StorageBackend(s3, BUCKET, "documents/");
+    }
+
+    @AfterAll
+    static void closeClient() {
+        backend.close();
+    }
+
+    @Test
+    void putThenGet() throws IOException {
+        byte[] content = randomBytes(100_000);
+
+        StorageObject stored = backend.put("put-then-get", new ByteArrayInputStream(content), content.length);
+
+        assertThat(stored.getSize()).isEqualTo(content.length);
+        assertThat(read(backend.get("put-then-get"))).isEqualTo(content);
+    }
+
+    @Test
+    void putOfUnknownLengthIsSpooled() throws IOException {
+        byte[] content = randomBytes(10_000);
+
+        backend.put("unknown-length", new ByteArrayInputStream(content), -1);
+
+        assertThat(backend.stat("unknown-length")).map(StorageObject::getSize).contains((long) content.length);
+        assertThat(read(backend.get("unknown-length"))).isEqualTo(content);
+    }
+
+    @Test
+    void putFileTakesOverTheSource(@TempDir Path tempDir) throws IOException {
+        byte[] content = randomBytes(5_000);
+        Path source = Files.write(tempDir.resolve("upload.tmp"), content);
+
+        backend.putFile("put-file", source);
+
+        assertThat(source).doesNotExist();
+        assertThat(read(backend.get("put-file"))).isEqualTo(content);
+    }
+
+    @Test
+    void getRangeReturnsOnlyTheRequestedBytes() throws IOException {
+        byte[] content = randomBytes(50_000);
+        backend.put("ranged", new ByteArrayInputStream(content), content.length);
+
+        assertThat(read(backend.getRange("ranged", 1_000, 2_000)))
+            .isEqualTo(Arrays.copyOfRange(content, 1_000, 3_000));
+        assertThat(read(backend.getRange("ranged", content.length - 10, 10)))
+            .isEqualTo(Arrays.copyOfRange(content, content.length - 10, content.length));
+        assertThat(read(backend.getRange("ranged", 0, 0))).isEmpty();
+    }
+
+    @Test
+    void deleteRemovesTheObject() throws IOException {
+        backend.put("deleted", new ByteArrayInputStream(new byte[] {1, 2, 3}), 3);
+        assertThat(backend.stat("deleted")).isPresent();
+
+        assertThat(backend.delete("deleted")).isTrue();
+
+        assertThat(backend.stat("deleted")).isEqualTo(Optional.empty());
+        assertThatThrownBy(() -> backend.get("deleted")).isInstanceOf(FileNotFoundException.class);
+    }
+
+    @Test
+    void missingObjectsAreReportedAsNotFound() throws IOException {
+        assertThat(backend.stat("missing")).isEmpty();
+        assertThatThrownBy(() -> backend.get("missing")).isInstanceOf(FileNotFoundException.class);
+        assertThatThrownBy(() -> backend.getRange("missing", 0, 10)).isInstanceOf(FileNotFoundException.class);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.acosentini.dms.storage;
+
+import io.github.acosentini.dms.config.FileStorageProperties;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StorageLayoutMigratorTest {
+
+    private static final String HASH = "3f2a9c0d5e7b1a2c3d4e5f60718293a4b5c6d7e8f90a1b2c3d4e5f60718293a4";
+    private static final String UUID_NAME = "9b1d2c3e-4f50-6172-8394-a5b6c7d8e9f0";
+
+    @TempDir
+    Path uploadDir;
+
+    private StorageLayout storageLayout;
+    private StorageLayoutMigrator migrator;
+
+    @BeforeEach
+    void setUp() {
+        FileStorageProperties properties = new FileStorageProperties();
+        properties.setUploadDir(uploadDir.toString());
+        properties.getLayoutMigration().setBatchSize(1);
+        properties.getLayoutMigration().setBatchPause(Duration.ZERO);
+
+        storageLayout = new StorageLayout(properties);
+        migrator = new StorageLayoutMigrator(properties, storageLayout);
+    }
+
+    @Test
+    void movesFlatFilesIntoTheShardedLayout() throws IOException {
+        Files.writeString(uploadDir.resolve(HASH), "blob");
+        Files.writeString(uploadDir.resolve(UUID_NAME), "older file");
+
+        assertThat(migrator.migrate()).isEqualTo(2);
+
+        assertThat(uploadDir.resolve(HASH)).doesNotExist();
+        assertThat(uploadDir.resolve("3f/2a/" + HASH)).hasContent("blob");
+        assertThat(uploadDir.resolve("9b/1d/" + UUID_NAME)).hasContent("older file");
+    }
+
+    @Test
+    void filesStayReadableThroughTheBackendBeforeAndAfter() throws IOException {
+        Files.writeString(uploadDir.resolve(HASH), "blob");
+        LocalStorageBackend backend = new LocalStorageBackend(uploadDir, storageLayout);
+        assertThat(read(backend, HASH)).isEqualTo("blob");
+
+        migrator.migrate();
+
+        assertThat(read(backend, HASH)).isEqualTo("blob");
+        assertThat(backend.getLocalPath(HASH)).contains(uploadDir.resolve("3f/2a/" + HASH));
+    }
+
+    @Test
+    void isIdempotentAndLeavesInternalDirectoriesAlone() throws IOException {
+        Files.writeString(uploadDir.resolve(HASH), "blob");
+        Path session = Files.createDirectories(uploadDir.resolve(".sessions")).resolve(UUID_NAME);
+        Files.writeString(session, "partial upload");
+
+        assertThat(migrator.migrate()).isEqualTo(1);
+        assertThat(migrator.migrate()).isZero();
+
+        assertThat(session).hasContent("partial upload");
+    }
+
+    @Test
+    void dropsTheFlatCopyWhenTheShardedFileExists() throws IOException {
+        Files.writeString(uploadDir.resolve(HASH), "blob");
+        Files.createDirectories(uploadDir.resolve("3f/2a"));
+        Files.writeString(uploadDir.resolve("3f/2a/" + HASH), "blob");
+
+        migrator.migrate();
+
+        assertThat(uploadDir.resolve(HASH)).doesNotExist();
+        assertThat(uploadDir.resolve("3f/2a/" + HASH)).hasContent("blob");
+    }
+
+    private static String read(StorageBackend backend, String key) throws IOException {
+        try (InputStream in = backend.get(key)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
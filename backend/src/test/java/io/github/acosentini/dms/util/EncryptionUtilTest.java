@@ -0,0 +1,66 @@
+package io.github.acosentini.dms.util;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EncryptionUtilTest {
+
+    private EncryptionUtil encryptionUtil;
+
+    @BeforeEach
+    void setUp() {
+        encryptionUtil = new EncryptionUtil();
+        ReflectionTestUtils.setField(encryptionUtil, "secret", "testSecretKey");
+        encryptionUtil.init();
+    }
+
+    @Test
+    void decryptsWhatItEncrypted() {
+        String encrypted = encryptionUtil.encrypt("documents/2024/report.pdf");
+
+        assertThat(encrypted).isNotEqualTo("documents/2024/report.pdf");
+        assertThat(encryptionUtil.decrypt(encrypted)).isEqualTo("documents/2024/report.pdf");
+    }
+
+    @Test
+    void reusesCiphersAcrossCalls() {
+        for (int i = 0; i < 100; i++) {
+            String value = "value-" + i;
+            assertThat(encryptionUtil.decrypt(encryptionUtil.encrypt(value))).isEqualTo(value);
+        }
+    }
+
+    @Test
+    void roundTripsOnManyThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String value = "value-" + i;
+                results.add(executor.submit(() -> encryptionUtil.decrypt(encryptionUtil.encrypt(value))));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertThat(results.get(i).get()).isEqualTo("value-" + i);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void rejectsCorruptCiphertext() {
+        assertThatThrownBy(() -> encryptionUtil.decrypt("bm90IGNpcGhlcnRleHQ="))
+                .isInstanceOf(RuntimeException.class)
+                .hasMessage("Error decrypting data");
+    }
+}